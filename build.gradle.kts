@@ -6,6 +6,7 @@ plugins {
     `maven-publish`
     id("uk.jamierocks.propatcher") version "1.3.2"
     id("org.cadixdev.licenser") version "0.5.0"
+    id("me.champeau.gradle.jmh") version "0.5.3"
 }
 
 val artifactId = name.toLowerCase()
@@ -92,6 +93,15 @@ tasks.jar.configure {
 
 tasks.withType<Test> {
     useJUnitPlatform()
+
+    // Allocation budgets of the remapper, e.g. -Dmercury.allocationBudget.remapper=<bytes per file>
+    System.getProperties().stringPropertyNames()
+            .filter { it.startsWith("mercury.allocationBudget.") }
+            .forEach { systemProperty(it, System.getProperty(it)) }
+}
+
+jmh {
+    jmhVersion = "1.27"
 }
 
 val sourceJar = task<Jar>("sourceJar") {
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury.benchmark;
+
+import org.cadixdev.lorenz.MappingSet;
+import org.cadixdev.mercury.Mercury;
+import org.cadixdev.mercury.remapper.MercuryRemapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remaps heavily documented sources with and without remapping Javadoc. Without
+ * Javadoc, the parser does not build the Javadoc tag trees at all.
+ *
+ * <p>Run with {@code ./gradlew jmh}, with the {@code gc} profiler to compare
+ * the allocations per run as well.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class JavadocBenchmark {
+
+    private static final String PACKAGE = "docs";
+    private static final int METHODS = 20;
+
+    @Param({"true", "false"})
+    public boolean javadoc;
+
+    @Param("200")
+    public int classes;
+
+    private Path sourceDir;
+    private MappingSet mappings;
+
+    @Setup
+    public void setup() throws IOException {
+        this.sourceDir = Files.createTempDirectory("mercury-benchmark");
+        Path packageDir = Files.createDirectories(this.sourceDir.resolve(PACKAGE));
+
+        this.mappings = MappingSet.create();
+        for (int i = 0; i < this.classes; i++) {
+            Files.write(packageDir.resolve("Doc" + i + ".java"), createSource(i).getBytes(StandardCharsets.UTF_8));
+            this.mappings.createTopLevelClassMapping(PACKAGE + "/Doc" + i, PACKAGE + "/Renamed" + i);
+        }
+    }
+
+    private String createSource(int index) {
+        String other = "Doc" + ((index + 1) % this.classes);
+
+        StringBuilder source = new StringBuilder()
+                .append("package ").append(PACKAGE).append(";\n\n")
+                .append("/**\n")
+                .append(" * Documentation for {@link Doc").append(index).append("},\n")
+                .append(" * see {@link ").append(other).append("#method0(int, String)}.\n")
+                .append(" */\n")
+                .append("public class Doc").append(index).append(" {\n\n");
+
+        for (int i = 0; i < METHODS; i++) {
+            source.append("    /** The value, see {@link ").append(other).append("}. */\n")
+                    .append("    public int field").append(i).append(";\n\n")
+                    .append("    /**\n")
+                    .append("     * Does something with {@link ").append(other).append("}.\n")
+                    .append("     *\n")
+                    .append("     * @param value The value, see {@link ").append(other).append("#field").append(i).append("}\n")
+                    .append("     * @param name The name\n")
+                    .append("     * @return The result, {@code value + field").append(i).append("}\n")
+                    .append("     * @throws IllegalArgumentException If {@link ").append(other).append("} is invalid\n")
+                    .append("     * @see ").append(other).append("#method").append(i).append("(int, String)\n")
+                    .append("     */\n")
+                    .append("    public int method").append(i).append("(int value, String name) {\n")
+                    .append("        return value + field").append(i).append(";\n")
+                    .append("    }\n\n");
+        }
+
+        return source.append("}\n").toString();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        SyntheticCorpus.delete(this.sourceDir);
+    }
+
+    @Benchmark
+    public void rewrite(Blackhole blackhole) throws Exception {
+        Mercury mercury = new Mercury();
+        mercury.getProcessors().add(MercuryRemapper.create(this.mappings, this.javadoc));
+        mercury.rewrite(this.sourceDir, (path, content) -> blackhole.consume(content));
+    }
+
+}
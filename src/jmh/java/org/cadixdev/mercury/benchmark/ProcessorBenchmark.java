@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.cadixdev.mercury.benchmark;
+
+import org.cadixdev.at.AccessTransformSet;
+import org.cadixdev.mercury.Mercury;
+import org.cadixdev.mercury.RewriteContext;
+import org.cadixdev.mercury.SourceProcessor;
+import org.cadixdev.mercury.SourceRewriter;
+import org.cadixdev.mercury.at.AccessTransformerRewriter;
+import org.cadixdev.mercury.extra.BridgeMethodRewriter;
+import org.cadixdev.mercury.remapper.MercuryRemapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs each of the built-in processors on the same source trees.
+ *
+ * <p>Bindings can only be resolved while the parser is running, so the processors
+ * cannot be run on units that were parsed in advance. Instead, the {@code baseline}
+ * runs a processor that only requests bindings and does nothing else, the cost of a
+ * processor is the difference to the baseline. All runs are single-threaded, so
+ * the difference is not blurred by the scheduling of the batches.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ProcessorBenchmark {
+
+    private static final SourceRewriter BASELINE = new SourceRewriter() {
+
+        @Override
+        public int getFlags() {
+            return FLAG_RESOLVE_BINDINGS;
+        }
+
+        @Override
+        public void rewrite(RewriteContext context) {
+        }
+
+    };
+
+    @Param({"baseline", "remapper", "simple-remapper", "access-transformer", "bridge-methods"})
+    public String processor;
+
+    @Param({SyntheticCorpus.SMALL, SyntheticCorpus.MEDIUM, SyntheticCorpus.LARGE})
+    public int classes;
+
+    private SyntheticCorpus sources;
+    private SourceProcessor instance;
+
+    @Setup
+    public void setup() throws IOException {
+        this.sources = SyntheticCorpus.generate(this.classes);
+    }
+
+    @Setup(Level.Invocation)
+    public void createInstance() {
+        // Processors may keep state between runs (e.g. completed access transformers), so
+        // every run starts with a new one, created outside of the measurement
+        this.instance = createProcessor();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        this.sources.delete();
+    }
+
+    private SourceProcessor createProcessor() {
+        switch (this.processor) {
+            case "baseline":
+                return BASELINE;
+            case "remapper":
+                return MercuryRemapper.create(this.sources.mappings);
+            case "simple-remapper":
+                return MercuryRemapper.createSimple(this.sources.mappings);
+            case "access-transformer":
+                // A fresh copy, the processor must not see changes made by previous runs
+                AccessTransformSet accessTransforms = AccessTransformSet.create();
+                accessTransforms.merge(this.sources.accessTransforms);
+                return AccessTransformerRewriter.create(accessTransforms);
+            case "bridge-methods":
+                return BridgeMethodRewriter.create();
+            default:
+                throw new IllegalArgumentException("Unknown processor: " + this.processor);
+        }
+    }
+
+    @Benchmark
+    public void rewrite(Blackhole blackhole) throws Exception {
+        Mercury mercury = new Mercury();
+        mercury.setParallelism(1);
+        mercury.getProcessors().add(this.instance);
+        mercury.rewrite(this.sources.sourceDir, (path, content) -> blackhole.consume(content));
+    }
+
+}
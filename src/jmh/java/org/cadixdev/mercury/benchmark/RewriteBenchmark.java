@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.cadixdev.mercury.benchmark;
+
+import org.cadixdev.mercury.Mercury;
+import org.cadixdev.mercury.remapper.MercuryRemapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Remaps complete source trees, from discovering the source files to writing the
+ * output, with the default settings.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class RewriteBenchmark {
+
+    @Param({SyntheticCorpus.SMALL, SyntheticCorpus.MEDIUM, SyntheticCorpus.LARGE})
+    public int classes;
+
+    private SyntheticCorpus sources;
+
+    @Setup
+    public void setup() throws IOException {
+        this.sources = SyntheticCorpus.generate(this.classes);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        this.sources.delete();
+    }
+
+    @Benchmark
+    public void rewrite(Blackhole blackhole) throws Exception {
+        Mercury mercury = new Mercury();
+        mercury.getProcessors().add(MercuryRemapper.create(this.sources.mappings));
+        mercury.rewrite(this.sources.sourceDir, (path, content) -> blackhole.consume(content));
+    }
+
+}
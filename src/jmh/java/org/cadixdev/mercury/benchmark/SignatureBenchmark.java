@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+package org.cadixdev.mercury.benchmark;
+
+import org.cadixdev.mercury.Mercury;
+import org.cadixdev.mercury.SourceContext;
+import org.cadixdev.mercury.SourceProcessor;
+import org.cadixdev.mercury.util.BombeBindings;
+import org.eclipse.jdt.core.dom.ASTVisitor;
+import org.eclipse.jdt.core.dom.IMethodBinding;
+import org.eclipse.jdt.core.dom.IVariableBinding;
+import org.eclipse.jdt.core.dom.MethodDeclaration;
+import org.eclipse.jdt.core.dom.VariableDeclarationFragment;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Converts the bindings of all declared methods and fields to Bombe signatures,
+ * which the remapper does for every reference to a member.
+ *
+ * <p>The bindings are collected in a single-threaded run. Their types are
+ * converted once while the parser is still running, so the benchmark itself only
+ * uses the bindings that were already resolved.</p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SignatureBenchmark {
+
+    @Param({SyntheticCorpus.SMALL, SyntheticCorpus.MEDIUM, SyntheticCorpus.LARGE})
+    public int classes;
+
+    private final List<IMethodBinding> methods = new ArrayList<>();
+    private final List<IVariableBinding> fields = new ArrayList<>();
+
+    @Setup
+    public void setup() throws Exception {
+        SyntheticCorpus sources = SyntheticCorpus.generate(this.classes);
+        try {
+            Mercury mercury = new Mercury();
+            mercury.setParallelism(1);
+            mercury.getProcessors().add(new Collector());
+            mercury.process(sources.sourceDir);
+        } finally {
+            sources.delete();
+        }
+    }
+
+    @Benchmark
+    public void convertMethods(Blackhole blackhole) {
+        for (IMethodBinding method : this.methods) {
+            blackhole.consume(BombeBindings.convertSignature(method));
+        }
+    }
+
+    @Benchmark
+    public void convertFields(Blackhole blackhole) {
+        for (IVariableBinding field : this.fields) {
+            blackhole.consume(BombeBindings.convertSignature(field));
+        }
+    }
+
+    private class Collector implements SourceProcessor {
+
+        @Override
+        public int getFlags() {
+            return FLAG_RESOLVE_BINDINGS;
+        }
+
+        @Override
+        public void process(SourceContext context) {
+            context.getCompilationUnit().accept(new ASTVisitor() {
+
+                @Override
+                public boolean visit(MethodDeclaration node) {
+                    IMethodBinding binding = node.resolveBinding();
+                    if (binding != null) {
+                        BombeBindings.convertSignature(binding);
+                        SignatureBenchmark.this.methods.add(binding);
+                    }
+                    return true;
+                }
+
+                @Override
+                public boolean visit(VariableDeclarationFragment node) {
+                    IVariableBinding binding = node.resolveBinding();
+                    if (binding != null && binding.isField()) {
+                        BombeBindings.convertSignature(binding);
+                        SignatureBenchmark.this.fields.add(binding);
+                    }
+                    return true;
+                }
+
+            });
+        }
+
+    }
+
+}
@@ -0,0 +1,357 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury.benchmark;
+
+import org.cadixdev.at.AccessChange;
+import org.cadixdev.at.AccessTransform;
+import org.cadixdev.at.AccessTransformSet;
+import org.cadixdev.at.ModifierChange;
+import org.cadixdev.bombe.type.signature.FieldSignature;
+import org.cadixdev.bombe.type.signature.MethodSignature;
+import org.cadixdev.lorenz.MappingSet;
+import org.cadixdev.lorenz.io.MappingFormats;
+import org.cadixdev.lorenz.io.MappingsWriter;
+import org.cadixdev.lorenz.model.ClassMapping;
+import org.cadixdev.lorenz.model.InnerClassMapping;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+/**
+ * Generates obfuscated source trees of any size, together with the mappings to
+ * deobfuscate them and access transformers that touch every class.
+ *
+ * <p>The classes have short obfuscated names ({@code net.p0.B}, {@code net.p0.C},
+ * ...) with {@value #CLASSES_PER_PACKAGE} classes per package. Each class:</p>
+ * <ul>
+ *     <li>extends the previous class, forming hierarchies of {@value #DEPTH}
+ *     classes that cross package boundaries, and overrides all of its methods</li>
+ *     <li>implements a generic interface of its package (the first class of
+ *     each hierarchy), see {@code A<T>}</li>
+ *     <li>references a random other class through fields, lambdas, an anonymous
+ *     class and Javadoc links, fully qualified if it is in another package</li>
+ *     <li>has a static nested and an inner class, and a method that only
+ *     delegates to an overload, like a bridge method</li>
+ * </ul>
+ *
+ * <p>The output is deterministic for the same size and seed. Run {@link #main(String[])}
+ * to write a corpus and its mappings to disk, e.g. for stress tests.</p>
+ */
+public final class SyntheticCorpus {
+
+    /**
+     * The small, medium and large inputs of the benchmarks.
+     */
+    static final String SMALL = "10";
+    static final String MEDIUM = "100";
+    static final String LARGE = "1000";
+
+    static final int CLASSES_PER_PACKAGE = 50;
+    static final int DEPTH = 8;
+
+    private static final String INTERFACE = "A";
+    private static final String OBJECT = "Ljava/lang/Object;";
+    private static final String STRING = "Ljava/lang/String;";
+
+    final Path sourceDir;
+    final MappingSet mappings = MappingSet.create();
+    final AccessTransformSet accessTransforms = AccessTransformSet.create();
+
+    private final int classes;
+    private final Random random;
+
+    private SyntheticCorpus(Path sourceDir, int classes, long seed) {
+        this.sourceDir = sourceDir;
+        this.classes = classes;
+        this.random = new Random(seed);
+    }
+
+    static SyntheticCorpus generate(int classes) throws IOException {
+        return generate(Files.createTempDirectory("mercury-benchmark"), classes, 0);
+    }
+
+    /**
+     * Generates a corpus into the given directory.
+     *
+     * @param sourceDir The directory for the source files
+     * @param classes The number of classes, without the interfaces of each package
+     * @param seed The seed for the references between classes
+     * @return The corpus
+     * @throws IOException If a source file could not be written
+     */
+    public static SyntheticCorpus generate(Path sourceDir, int classes, long seed) throws IOException {
+        if (classes <= 0) {
+            throw new IllegalArgumentException("classes must be positive");
+        }
+
+        SyntheticCorpus corpus = new SyntheticCorpus(sourceDir, classes, seed);
+        for (int p = 0; p <= (classes - 1) / CLASSES_PER_PACKAGE; p++) {
+            corpus.addInterface(p);
+        }
+        for (int i = 0; i < classes; i++) {
+            corpus.addClass(i);
+        }
+        return corpus;
+    }
+
+    public Path getSourceDir() {
+        return this.sourceDir;
+    }
+
+    public MappingSet getMappings() {
+        return this.mappings;
+    }
+
+    private static String getPackage(int index) {
+        return "net.p" + index / CLASSES_PER_PACKAGE;
+    }
+
+    /**
+     * Returns the obfuscated simple name of a class: {@code B}, {@code C}, ...,
+     * {@code Z}, {@code AA}, {@code AB}, ... ({@code A} is the interface).
+     */
+    private static String getSimpleName(int index) {
+        StringBuilder name = new StringBuilder();
+        for (int n = index % CLASSES_PER_PACKAGE + 2; n > 0; n = (n - 1) / 26) {
+            name.append((char) ('A' + (n - 1) % 26));
+        }
+        return name.reverse().toString();
+    }
+
+    private static String getInternalName(int index) {
+        return getPackage(index).replace('.', '/') + '/' + getSimpleName(index);
+    }
+
+    /**
+     * Returns the name to reference a class from another class, qualified if the
+     * classes are in different packages (their simple names are not unique).
+     */
+    private static String reference(int index, int from) {
+        if (index / CLASSES_PER_PACKAGE == from / CLASSES_PER_PACKAGE) {
+            return getSimpleName(index);
+        }
+        return getPackage(index) + '.' + getSimpleName(index);
+    }
+
+    private void write(String packageName, String simpleName, String source) throws IOException {
+        Path file = this.sourceDir.resolve(packageName.replace('.', '/')).resolve(simpleName + ".java");
+        Files.createDirectories(file.getParent());
+        Files.write(file, source.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void addInterface(int p) throws IOException {
+        String packageName = "net.p" + p;
+        write(packageName, INTERFACE, "package " + packageName + ";\n\n"
+                + "/**\n"
+                + " * Transforms values, see {@link #a(Object)}.\n"
+                + " *\n"
+                + " * @param <T> The type of the values\n"
+                + " */\n"
+                + "public interface A<T> {\n\n"
+                + "    T a(T value);\n\n"
+                + "    default int b() {\n"
+                + "        return 0;\n"
+                + "    }\n\n"
+                + "}\n");
+
+        ClassMapping<?, ?> mapping = this.mappings.createTopLevelClassMapping(packageName.replace('.', '/') + '/' + INTERFACE,
+                "com/example/module" + p + "/Transformer");
+        mapping.createMethodMapping(MethodSignature.of("a", "(" + OBJECT + ")" + OBJECT), "apply");
+        mapping.createMethodMapping(MethodSignature.of("b", "()I"), "size");
+    }
+
+    private void addClass(int index) throws IOException {
+        String packageName = getPackage(index);
+        String name = getSimpleName(index);
+        boolean root = index % DEPTH == 0;
+        String other = reference(this.random.nextInt(this.classes), index);
+        String override = root ? "" : "    @Override\n";
+
+        StringBuilder source = new StringBuilder()
+                .append("package ").append(packageName).append(";\n\n")
+                .append("import java.util.ArrayList;\n")
+                .append("import java.util.List;\n")
+                .append("import java.util.function.Function;\n\n")
+                .append("/**\n")
+                .append(" * Class ").append(index).append(", see {@link ").append(other).append("#c(int)}\n")
+                .append(" * and {@link A#a(Object)}.\n")
+                .append(" */\n")
+                .append("public class ").append(name);
+        if (root) {
+            source.append(" implements A<String>");
+        } else {
+            source.append(" extends ").append(reference(index - 1, index));
+        }
+        source.append(" {\n\n")
+                .append("    protected int a;\n")
+                .append("    private final List<").append(other).append("> c = new ArrayList<>();\n\n")
+
+                .append(override)
+                .append("    public String a(String value) {\n")
+                .append("        return ").append(root ? "value" : "super.a(value)").append(" + this.a;\n")
+                .append("    }\n\n")
+
+                .append(override)
+                .append("    public int c(int value) {\n")
+                .append("        return ").append(root ? "value * 31" : "super.c(value)").append(" + this.a;\n")
+                .append("    }\n\n")
+
+                .append(override)
+                .append("    public Function<Integer, Integer> d() {\n")
+                .append("        return value -> this.c(value) + new ").append(other).append("().c(value);\n")
+                .append("    }\n\n")
+
+                .append(override)
+                .append("    public Runnable e() {\n")
+                .append("        return new Runnable() {\n")
+                .append("            @Override\n")
+                .append("            public void run() {\n")
+                .append("                ").append(name).append(".this.a++;\n")
+                .append("                ").append(name).append(".this.c.add(new ").append(other).append("());\n")
+                .append("            }\n")
+                .append("        };\n")
+                .append("    }\n\n")
+
+                .append(override)
+                .append("    public Object f(Object value) {\n")
+                .append("        return this.f((String) value);\n")
+                .append("    }\n\n")
+
+                .append(override)
+                .append("    public String f(String value) {\n")
+                .append("        return value + new a().b(this) + new b().a();\n")
+                .append("    }\n\n")
+
+                .append("    public static class a {\n\n")
+                .append("        int a;\n\n")
+                .append("        int b(").append(name).append(" outer) {\n")
+                .append("            return outer.c(this.a) + outer.a;\n")
+                .append("        }\n\n")
+                .append("    }\n\n")
+
+                .append("    public class b {\n\n")
+                .append("        int a() {\n")
+                .append("            return ").append(name).append(".this.a;\n")
+                .append("        }\n\n")
+                .append("    }\n\n")
+                .append("}\n");
+
+        write(packageName, name, source.toString());
+
+        String internalName = getInternalName(index);
+        String descriptor = 'L' + internalName + ';';
+        ClassMapping<?, ?> mapping = this.mappings.createTopLevelClassMapping(internalName,
+                "com/example/module" + index / CLASSES_PER_PACKAGE + "/Type" + index);
+        mapping.createFieldMapping(new FieldSignature("a"), "count");
+        mapping.createFieldMapping(new FieldSignature("c"), "references");
+        mapping.createMethodMapping(MethodSignature.of("a", "(" + STRING + ")" + STRING), "apply");
+        mapping.createMethodMapping(MethodSignature.of("c", "(I)I"), "compute");
+        mapping.createMethodMapping(MethodSignature.of("d", "()Ljava/util/function/Function;"), "mapper");
+        mapping.createMethodMapping(MethodSignature.of("e", "()Ljava/lang/Runnable;"), "task");
+        mapping.createMethodMapping(MethodSignature.of("f", "(" + OBJECT + ")" + OBJECT), "convert");
+        mapping.createMethodMapping(MethodSignature.of("f", "(" + STRING + ")" + STRING), "convert");
+
+        InnerClassMapping helper = mapping.createInnerClassMapping("a", "Helper");
+        helper.createFieldMapping(new FieldSignature("a"), "value");
+        helper.createMethodMapping(MethodSignature.of("b", "(" + descriptor + ")I"), "apply");
+
+        InnerClassMapping view = mapping.createInnerClassMapping("b", "View");
+        view.createMethodMapping(MethodSignature.of("a", "()I"), "count");
+
+        this.accessTransforms.getOrCreateClass(internalName)
+                .mergeField("a", AccessTransform.of(AccessChange.PUBLIC, ModifierChange.NONE));
+    }
+
+    /**
+     * Compiles the corpus with the system Java compiler, to make sure it is valid.
+     *
+     * @throws IOException If the source files could not be listed
+     * @throws IllegalStateException If the corpus does not compile
+     */
+    public void verify() throws IOException {
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        if (compiler == null) {
+            throw new IllegalStateException("No Java compiler available, run with a JDK");
+        }
+
+        Path classes = Files.createTempDirectory("mercury-corpus");
+        try {
+            List<String> args = new ArrayList<>(Arrays.asList("-nowarn", "-proc:none", "-d", classes.toString()));
+            try (Stream<Path> stream = Files.walk(this.sourceDir)) {
+                stream.filter(path -> path.toString().endsWith(".java")).map(Path::toString).forEach(args::add);
+            }
+
+            // Keep the output of successful runs quiet
+            ByteArrayOutputStream errors = new ByteArrayOutputStream();
+            if (compiler.run(null, errors, errors, args.toArray(new String[0])) != 0) {
+                throw new IllegalStateException("The corpus does not compile:\n"
+                        + new String(errors.toByteArray(), StandardCharsets.UTF_8));
+            }
+        } finally {
+            delete(classes);
+        }
+    }
+
+    void delete() throws IOException {
+        delete(this.sourceDir);
+    }
+
+    static void delete(Path dir) throws IOException {
+        List<Path> paths;
+        try (Stream<Path> stream = Files.walk(dir)) {
+            paths = stream.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+        }
+        for (Path path : paths) {
+            Files.delete(path);
+        }
+    }
+
+    /**
+     * Writes a corpus and its mappings (in the TSRG format) to disk, and verifies
+     * that it compiles.
+     *
+     * <p>Usage: {@code SyntheticCorpus <output dir> <classes> [seed]}, the sources
+     * are written to {@code <output dir>/src} and the mappings to
+     * {@code <output dir>/mappings.tsrg}.</p>
+     *
+     * @param args The arguments
+     * @throws IOException If the corpus could not be written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: SyntheticCorpus <output dir> <classes> [seed]");
+            System.exit(1);
+        }
+
+        Path outputDir = Paths.get(args[0]);
+        SyntheticCorpus corpus = generate(outputDir.resolve("src"), Integer.parseInt(args[1]),
+                args.length > 2 ? Long.parseLong(args[2]) : 0);
+        try (MappingsWriter writer = MappingFormats.TSRG.createWriter(outputDir.resolve("mappings.tsrg"))) {
+            writer.write(corpus.mappings);
+        }
+        corpus.verify();
+    }
+
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A persistent index of the packages and classes in the archives on the classpath,
+ * keyed by their path, size and modification time.
+ *
+ * <p>It is used to leave out archives that cannot affect any lookup of the
+ * parser: archives whose packages and classes are all provided by archives earlier
+ * on the classpath. The parser resolves packages and classes from the first
+ * classpath entry that contains them, so these archives would only be opened and
+ * scanned without ever contributing a type. With the index, this check does not
+ * need to open any archive that did not change since the previous run.</p>
+ */
+final class ClasspathIndex {
+
+    private static final String HEADER = "# Mercury classpath index v1";
+    private static final String CLASS_EXTENSION = ".class";
+
+    private final Path file;
+    private final Map<String, Entry> entries;
+    private boolean dirty;
+
+    private ClasspathIndex(Path file, Map<String, Entry> entries) {
+        this.file = file;
+        this.entries = entries;
+    }
+
+    static ClasspathIndex read(Path file) {
+        Map<String, Entry> entries = new HashMap<>();
+        if (Files.isRegularFile(file)) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new GZIPInputStream(Files.newInputStream(file)), StandardCharsets.UTF_8))) {
+                if (HEADER.equals(reader.readLine())) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        String[] parts = line.split("\t");
+                        Entry entry = new Entry(Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+                        readNames(reader, Integer.parseInt(parts[3]), entry.packages);
+                        readNames(reader, Integer.parseInt(parts[4]), entry.classes);
+                        entries.put(parts[0], entry);
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                // The index is broken, build it again
+                entries.clear();
+            }
+        }
+        return new ClasspathIndex(file, entries);
+    }
+
+    private static void readNames(BufferedReader reader, int count, Set<String> names) throws IOException {
+        for (int i = 0; i < count; i++) {
+            names.add(reader.readLine());
+        }
+    }
+
+    /**
+     * Returns the classpath without the archives whose packages and classes are
+     * all provided by earlier classpath entries. Directories (and anything that
+     * cannot be read as an archive) are always kept.
+     *
+     * @param classPath The classpath
+     * @return The classpath entries that are needed
+     * @throws IOException If an archive could not be read
+     */
+    List<Path> prune(List<Path> classPath) throws IOException {
+        List<Path> result = new ArrayList<>(classPath.size());
+        Set<String> packages = new HashSet<>();
+        Set<String> classes = new HashSet<>();
+
+        for (Path path : classPath) {
+            Entry entry = Files.isRegularFile(path) ? get(path) : null;
+            if (entry == null) {
+                // Directories (and anything else) are not indexed, so they are always kept
+                result.add(path);
+                continue;
+            }
+
+            if (packages.containsAll(entry.packages) && classes.containsAll(entry.classes)) {
+                continue;
+            }
+
+            packages.addAll(entry.packages);
+            classes.addAll(entry.classes);
+            result.add(path);
+        }
+
+        return result;
+    }
+
+    private static String getKey(Path path) {
+        return path.toAbsolutePath().normalize().toString();
+    }
+
+    private Entry get(Path path) throws IOException {
+        String key = getKey(path);
+        long size = Files.size(path);
+        long lastModified = Files.getLastModifiedTime(path).toMillis();
+
+        Entry entry = this.entries.get(key);
+        if (entry != null && entry.size == size && entry.lastModified == lastModified) {
+            return entry;
+        }
+
+        entry = new Entry(size, lastModified);
+        try (ZipFile zip = new ZipFile(path.toFile())) {
+            Enumeration<? extends ZipEntry> zipEntries = zip.entries();
+            while (zipEntries.hasMoreElements()) {
+                String name = zipEntries.nextElement().getName();
+
+                // Like the parser, every directory of an entry is a package
+                int index = name.indexOf('/');
+                while (index != -1) {
+                    entry.packages.add(name.substring(0, index));
+                    index = name.indexOf('/', index + 1);
+                }
+
+                if (name.endsWith(CLASS_EXTENSION)) {
+                    entry.classes.add(name.substring(0, name.length() - CLASS_EXTENSION.length()));
+                }
+            }
+        } catch (IOException e) {
+            // Not an archive, let the parser deal with it
+            return null;
+        }
+
+        this.entries.put(key, entry);
+        this.dirty = true;
+        return entry;
+    }
+
+    void save() throws IOException {
+        if (!this.dirty) {
+            return;
+        }
+
+        Path parent = this.file.toAbsolutePath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+
+        Path temp = this.file.resolveSibling(this.file.getFileName() + ".tmp");
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+                new GZIPOutputStream(Files.newOutputStream(temp)), StandardCharsets.UTF_8))) {
+            writer.write(HEADER);
+            writer.newLine();
+
+            for (Map.Entry<String, Entry> entry : new TreeMap<>(this.entries).entrySet()) {
+                Entry value = entry.getValue();
+                writer.write(entry.getKey() + '\t' + value.size + '\t' + value.lastModified + '\t'
+                        + value.packages.size() + '\t' + value.classes.size());
+                writer.newLine();
+                writeNames(writer, value.packages);
+                writeNames(writer, value.classes);
+            }
+        }
+        Files.move(temp, this.file, StandardCopyOption.REPLACE_EXISTING);
+        this.dirty = false;
+    }
+
+    private static void writeNames(BufferedWriter writer, Set<String> names) throws IOException {
+        for (String name : new TreeSet<>(names)) {
+            writer.write(name);
+            writer.newLine();
+        }
+    }
+
+    private static final class Entry {
+
+        final long size;
+        final long lastModified;
+        final Set<String> packages = new HashSet<>();
+        final Set<String> classes = new HashSet<>();
+
+        Entry(long size, long lastModified) {
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+    }
+
+}
@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury;
+
+import org.cadixdev.mercury.util.Fingerprint;
+import org.cadixdev.mercury.util.ZipOutputSink;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Creates signature-only copies of the archives on the classpath, which are
+ * cached in a directory and passed to the parser instead of the original archives.
+ *
+ * <p>The copies only contain the class files, without the attributes the parser
+ * never needs to resolve bindings (method bodies and debug information). All
+ * declarations, signatures, modifiers, annotations and constant values are kept.
+ * Other files are replaced by empty directories, so the archive still provides
+ * the same packages.</p>
+ */
+final class ClasspathStubs {
+
+    private static final String VERSION = "1";
+    private static final String CLASS_EXTENSION = ".class";
+    private static final int MAGIC = 0xCAFEBABE;
+
+    private static final Set<String> REMOVED_ATTRIBUTES = new HashSet<>(Arrays.asList(
+            "Code",
+            "SourceFile",
+            "SourceDebugExtension"
+    ));
+
+    private ClasspathStubs() {
+    }
+
+    /**
+     * Returns the classpath with each archive replaced by its signature-only copy,
+     * creating the copies that do not exist yet. Directories (and anything that
+     * cannot be read as an archive) are kept as-is.
+     *
+     * @param cacheDir The directory for the copies, can be deleted at any time.
+     *     Outdated copies of an archive are removed when it is copied again.
+     * @param classPath The classpath
+     * @return The classpath to pass to the parser
+     * @throws IOException If a copy could not be written
+     */
+    static List<Path> get(Path cacheDir, List<Path> classPath) throws IOException {
+        List<Path> result = new ArrayList<>(classPath.size());
+        for (Path path : classPath) {
+            result.add(Files.isRegularFile(path) ? get(cacheDir, path) : path);
+        }
+        return result;
+    }
+
+    private static Path get(Path cacheDir, Path archive) throws IOException {
+        // Stubs of the same archive are outdated and removed
+        String prefix = new Fingerprint()
+                .add(VERSION)
+                .add(archive.toAbsolutePath().normalize().toString())
+                .finish().substring(0, 16) + '-';
+        String state = new Fingerprint()
+                .add(Files.size(archive))
+                .add(Files.getLastModifiedTime(archive).toMillis())
+                .finish().substring(0, 16);
+
+        Path stub = cacheDir.resolve(prefix + state + ".jar");
+        if (Files.isRegularFile(stub)) {
+            return stub;
+        }
+
+        Files.createDirectories(cacheDir);
+        // Other runs may create the same stub concurrently, so it only appears once it is complete
+        Path temp = Files.createTempFile(cacheDir, prefix, ".tmp");
+        try (ZipFile zip = new ZipFile(archive.toFile())) {
+            try (ZipOutputSink sink = new ZipOutputSink(temp, Deflater.BEST_SPEED)) {
+                Set<String> dirs = new HashSet<>();
+                Enumeration<? extends ZipEntry> entries = zip.entries();
+                while (entries.hasMoreElements()) {
+                    ZipEntry entry = entries.nextElement();
+                    String entryName = entry.getName();
+
+                    if (entryName.endsWith(CLASS_EXTENSION)) {
+                        byte[] bytes;
+                        try (InputStream in = zip.getInputStream(entry)) {
+                            bytes = readAll(in);
+                        }
+                        sink.write(entryName, strip(bytes));
+                        continue;
+                    }
+
+                    // Keep the directories of other files, they are packages for the parser
+                    int index = entryName.lastIndexOf('/');
+                    if (index != -1 && dirs.add(entryName.substring(0, index + 1))) {
+                        sink.write(entryName.substring(0, index + 1), new byte[0]);
+                    }
+                }
+            }
+            Files.move(temp, stub, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // Not an archive, let the parser deal with it
+            Files.deleteIfExists(temp);
+            return archive;
+        }
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(cacheDir, prefix + "*.jar")) {
+            for (Path other : stream) {
+                if (!other.equals(stub)) {
+                    Files.deleteIfExists(other);
+                }
+            }
+        }
+        return stub;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = in.read(buffer)) != -1) {
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Removes the method bodies and debug information from a class file. The
+     * constant pool is kept as-is, so none of the other attributes need to be
+     * rewritten.
+     *
+     * @param bytes The class file
+     * @return The stripped class file, or the original one if it could not be read
+     */
+    private static byte[] strip(byte[] bytes) {
+        try {
+            ByteBuffer in = ByteBuffer.wrap(bytes);
+            if (in.getInt() != MAGIC) {
+                return bytes;
+            }
+            in.getInt(); // Version
+
+            String[] utf8 = readConstantPool(in);
+            int constantPoolEnd = in.position();
+
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(bytes.length / 2);
+            DataOutputStream out = new DataOutputStream(buffer);
+            out.write(bytes, 0, constantPoolEnd);
+
+            // Access flags, this class and super class
+            copy(in, out, 6);
+            int interfaces = in.getShort() & 0xFFFF;
+            out.writeShort(interfaces);
+            copy(in, out, interfaces * 2);
+
+            // Fields and methods
+            for (int i = 0; i < 2; i++) {
+                int count = in.getShort() & 0xFFFF;
+                out.writeShort(count);
+                for (int j = 0; j < count; j++) {
+                    // Access flags, name and descriptor
+                    copy(in, out, 6);
+                    copyAttributes(in, out, utf8);
+                }
+            }
+
+            copyAttributes(in, out, utf8);
+            if (in.hasRemaining()) {
+                return bytes;
+            }
+
+            out.flush();
+            return buffer.toByteArray();
+        } catch (IOException | RuntimeException e) {
+            // Not a valid class file, let the parser deal with it
+            return bytes;
+        }
+    }
+
+    private static String[] readConstantPool(ByteBuffer in) {
+        int count = in.getShort() & 0xFFFF;
+        String[] utf8 = new String[count];
+        for (int i = 1; i < count; i++) {
+            int tag = in.get();
+            switch (tag) {
+                case 1: // Utf8
+                    int length = in.getShort() & 0xFFFF;
+                    // Attribute names are plain ASCII, so modified UTF-8 does not matter here
+                    utf8[i] = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+                    in.position(in.position() + length);
+                    break;
+                case 7: // Class
+                case 8: // String
+                case 16: // MethodType
+                case 19: // Module
+                case 20: // Package
+                    in.position(in.position() + 2);
+                    break;
+                case 15: // MethodHandle
+                    in.position(in.position() + 3);
+                    break;
+                case 3: // Integer
+                case 4: // Float
+                case 9: // Fieldref
+                case 10: // Methodref
+                case 11: // InterfaceMethodref
+                case 12: // NameAndType
+                case 17: // Dynamic
+                case 18: // InvokeDynamic
+                    in.position(in.position() + 4);
+                    break;
+                case 5: // Long
+                case 6: // Double
+                    in.position(in.position() + 8);
+                    i++;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown constant pool tag: " + tag);
+            }
+        }
+        return utf8;
+    }
+
+    private static void copyAttributes(ByteBuffer in, DataOutputStream out, String[] utf8) throws IOException {
+        int count = in.getShort() & 0xFFFF;
+        int start = in.position();
+
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            String name = utf8[in.getShort() & 0xFFFF];
+            int length = in.getInt();
+            in.position(in.position() + length);
+            if (!REMOVED_ATTRIBUTES.contains(name)) {
+                kept++;
+            }
+        }
+
+        out.writeShort(kept);
+        in.position(start);
+        for (int i = 0; i < count; i++) {
+            int nameIndex = in.getShort() & 0xFFFF;
+            int length = in.getInt();
+            if (REMOVED_ATTRIBUTES.contains(utf8[nameIndex])) {
+                in.position(in.position() + length);
+                continue;
+            }
+
+            out.writeShort(nameIndex);
+            out.writeInt(length);
+            copy(in, out, length);
+        }
+    }
+
+    private static void copy(ByteBuffer in, DataOutputStream out, int length) throws IOException {
+        out.write(in.array(), in.position(), length);
+        in.position(in.position() + length);
+    }
+
+}
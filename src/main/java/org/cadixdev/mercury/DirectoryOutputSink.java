@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Objects;
+
+final class DirectoryOutputSink implements OutputSink {
+
+    private final Path dir;
+
+    DirectoryOutputSink(Path dir) {
+        this.dir = Objects.requireNonNull(dir, "dir");
+    }
+
+    Path getDir() {
+        return this.dir;
+    }
+
+    private Path resolve(String path) throws IOException {
+        Path file = this.dir.resolve(path.replace("/", this.dir.getFileSystem().getSeparator()));
+        Files.createDirectories(file.getParent());
+        return file;
+    }
+
+    @Override
+    public void write(String path, byte[] content) throws IOException {
+        Files.write(resolve(path), content);
+    }
+
+    @Override
+    public void copy(String path, Path file) throws IOException {
+        Files.copy(file, resolve(path), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+}
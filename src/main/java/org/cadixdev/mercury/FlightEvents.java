@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury;
+
+import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.text.edits.TextEdit;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Java Flight Recorder events for the individual files of a run. The events are
+ * disabled by default, enable them in the recording settings (e.g. a custom
+ * {@code .jfc} file) or in JDK Mission Control.
+ *
+ * <p>The events are created through the {@code begin*} methods, which return
+ * {@code null} unless {@code jdk.jfr} is available (so Mercury still runs on Java 8
+ * builds without it) and the event is enabled in a running recording. This keeps
+ * runs without a recording from allocating an event per file.</p>
+ */
+final class FlightEvents {
+
+    private static final String CATEGORY = "Mercury";
+
+    /**
+     * Whether the {@code jdk.jfr} module is available.
+     */
+    static final boolean AVAILABLE = isAvailable();
+
+    private FlightEvents() {
+    }
+
+    private static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, FlightEvents.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    static ParseUntilAccepted beginParse(boolean firstInBatch) {
+        if (!AVAILABLE || !Types.PARSE.isEnabled()) {
+            return null;
+        }
+
+        ParseUntilAccepted event = new ParseUntilAccepted(firstInBatch);
+        event.begin();
+        return event;
+    }
+
+    static Process beginProcess() {
+        if (!AVAILABLE || !Types.PROCESS.isEnabled()) {
+            return null;
+        }
+
+        Process event = new Process();
+        event.begin();
+        return event;
+    }
+
+    static Rewrite beginRewrite() {
+        if (!AVAILABLE || !Types.REWRITE.isEnabled()) {
+            return null;
+        }
+
+        Rewrite event = new Rewrite();
+        event.begin();
+        return event;
+    }
+
+    static Write beginWrite() {
+        if (!AVAILABLE || !Types.WRITE.isEnabled()) {
+            return null;
+        }
+
+        Write event = new Write();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * The types of the events, only loaded if {@link #AVAILABLE} is {@code true}.
+     * Whether a type is enabled changes when recordings are started or stopped.
+     */
+    private static final class Types {
+
+        static final EventType PARSE = EventType.getEventType(ParseUntilAccepted.class);
+        static final EventType PROCESS = EventType.getEventType(Process.class);
+        static final EventType REWRITE = EventType.getEventType(Rewrite.class);
+        static final EventType WRITE = EventType.getEventType(Write.class);
+
+    }
+
+    /**
+     * The time until a source file is accepted from the parser. The parser does
+     * not report when it starts on a source file: it first resolves all source
+     * files of a batch, and only then builds and accepts their ASTs in turn. The
+     * first event of a batch therefore covers the resolution of the whole batch,
+     * while the following ones only cover the time since the previous source file
+     * was accepted. Use {@code firstInBatch} to tell them apart.
+     */
+    @Name("org.cadixdev.mercury.ParseUntilAccepted")
+    @Label("Parse Until Accepted")
+    @Category(CATEGORY)
+    @Enabled(false)
+    @StackTrace(false)
+    static final class ParseUntilAccepted extends Event {
+
+        @Label("Source File")
+        String sourceFile;
+
+        @Label("Source Length")
+        @Description("The number of characters of the source file")
+        int sourceLength;
+
+        @Label("First In Batch")
+        @Description("Whether the time includes resolving all source files of the batch")
+        boolean firstInBatch;
+
+        ParseUntilAccepted(boolean firstInBatch) {
+            this.firstInBatch = firstInBatch;
+        }
+
+        void commit(String sourceFile, CompilationUnit ast) {
+            end();
+            if (shouldCommit()) {
+                this.sourceFile = sourceFile;
+                this.sourceLength = ast.getLength();
+                commit();
+            }
+        }
+
+    }
+
+    /**
+     * Running a single {@link SourceProcessor} on a source file.
+     */
+    @Name("org.cadixdev.mercury.Process")
+    @Label("Process Source File")
+    @Category(CATEGORY)
+    @Enabled(false)
+    @StackTrace(false)
+    static final class Process extends Event {
+
+        @Label("Source File")
+        String sourceFile;
+
+        @Label("Source Length")
+        @Description("The number of characters of the source file")
+        int sourceLength;
+
+        @Label("Processor")
+        String processor;
+
+        void commit(SourceContext context, SourceProcessor processor) {
+            end();
+            if (shouldCommit()) {
+                this.sourceFile = context.getSourceFile().toString();
+                this.sourceLength = context.getCompilationUnit().getLength();
+                this.processor = processor.getClass().getName();
+                commit();
+            }
+        }
+
+    }
+
+    /**
+     * Computing the edits of an {@code ASTRewrite} or {@code ImportRewrite}.
+     */
+    @Name("org.cadixdev.mercury.Rewrite")
+    @Label("Rewrite Source File")
+    @Category(CATEGORY)
+    @Enabled(false)
+    @StackTrace(false)
+    static final class Rewrite extends Event {
+
+        @Label("Source File")
+        String sourceFile;
+
+        @Label("Source Length")
+        @Description("The number of characters of the source file")
+        int sourceLength;
+
+        @Label("Kind")
+        @Description("Either \"ast\" or \"imports\"")
+        String kind;
+
+        @Label("Edits")
+        int edits;
+
+        void commit(SourceContext context, String kind, TextEdit edit) {
+            end();
+            if (shouldCommit()) {
+                this.sourceFile = context.getSourceFile().toString();
+                this.sourceLength = context.getCompilationUnit().getLength();
+                this.kind = kind;
+                this.edits = RewriteContext.countEdits(edit);
+                commit();
+            }
+        }
+
+    }
+
+    /**
+     * Writing or copying an output file.
+     */
+    @Name("org.cadixdev.mercury.Write")
+    @Label("Write Output File")
+    @Category(CATEGORY)
+    @Enabled(false)
+    @StackTrace(false)
+    static final class Write extends Event {
+
+        @Label("Output File")
+        String outputFile;
+
+        @Label("Size")
+        @DataAmount
+        long size;
+
+        @Label("Copied")
+        @Description("Whether the source file was copied unchanged")
+        boolean copied;
+
+        void commitWrite(String outputFile, byte[] content) {
+            end();
+            if (shouldCommit()) {
+                this.outputFile = outputFile;
+                this.size = content.length;
+                commit();
+            }
+        }
+
+        void commitCopy(String outputFile, Path sourceFile) {
+            end();
+            if (shouldCommit()) {
+                this.outputFile = outputFile;
+                try {
+                    this.size = Files.size(sourceFile);
+                } catch (IOException e) {
+                    this.size = -1;
+                }
+                this.copied = true;
+                commit();
+            }
+        }
+
+    }
+
+}
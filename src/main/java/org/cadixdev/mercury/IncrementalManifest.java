@@ -0,0 +1,345 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury;
+
+import org.cadixdev.mercury.util.Fingerprint;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Records the inputs and outputs of an incremental run in the output directory,
+ * so that the next run can skip the source files that did not change.
+ *
+ * <p>For each source file, the manifest stores the hash of its content, its output
+ * file and the keys of its dependencies (see {@link SourceContext#addDependency(String)}).
+ * The state of each dependency is stored once, so a file can be processed again
+ * when the state of one of its dependencies changed.</p>
+ */
+final class IncrementalManifest {
+
+    static final String FILE_NAME = ".mercury-manifest";
+    private static final String HEADER = "# Mercury incremental manifest v2";
+
+    private final String fingerprint;
+    private final IncrementalManifest previous;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    // Dependency keys are shared between many files, so each entry only stores their IDs
+    private final List<String> keys;
+    private final Map<String, Integer> keyIds;
+    // Dependency states stored in the manifest, or the current states for a new manifest
+    private final Map<String, String> states;
+    private final Function<String, String> stateProvider;
+
+    // Hashes of the source files that are processed by the current run
+    private final Map<String, String> pending = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a manifest for a new run. The states of all dependencies of the
+     * previous run are computed immediately, since processors may change them
+     * while processing (e.g. by completing mappings).
+     *
+     * @param fingerprint The fingerprint of the current run
+     * @param previous The manifest of the previous run, may be {@code null}
+     * @param stateProvider The provider for the current state of dependencies
+     */
+    IncrementalManifest(String fingerprint, IncrementalManifest previous, Function<String, String> stateProvider) {
+        this.fingerprint = fingerprint;
+        this.previous = previous;
+        this.keys = new ArrayList<>();
+        this.keyIds = new ConcurrentHashMap<>();
+        this.states = new ConcurrentHashMap<>();
+        this.stateProvider = stateProvider;
+
+        if (previous != null && previous.fingerprint.equals(fingerprint)) {
+            for (String key : previous.keys) {
+                getState(key);
+            }
+        }
+    }
+
+    private IncrementalManifest(String fingerprint, List<String> keys, Map<String, String> states) {
+        this.fingerprint = fingerprint;
+        this.previous = null;
+        this.keys = keys;
+        this.keyIds = null;
+        this.states = states;
+        this.stateProvider = null;
+    }
+
+    static IncrementalManifest read(Path outputDir) throws IOException {
+        Path file = outputDir.resolve(FILE_NAME);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(Files.newInputStream(file)), StandardCharsets.UTF_8))) {
+            if (!HEADER.equals(reader.readLine())) {
+                // Unknown format, do a full run instead
+                return null;
+            }
+
+            String fingerprint = reader.readLine();
+            int keyCount = Integer.parseInt(reader.readLine());
+
+            List<String> keys = new ArrayList<>(keyCount);
+            Map<String, String> states = new HashMap<>(keyCount);
+            for (int i = 0; i < keyCount; i++) {
+                String[] parts = reader.readLine().split("\t", 2);
+                keys.add(parts[0]);
+                states.put(parts[0], parts.length > 1 ? parts[1] : "");
+            }
+
+            IncrementalManifest manifest = new IncrementalManifest(fingerprint, keys, states);
+
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t", 4);
+                int[] dependencies;
+                if (parts.length < 4 || parts[3].isEmpty()) {
+                    dependencies = new int[0];
+                } else {
+                    String[] ids = parts[3].split(",");
+                    dependencies = new int[ids.length];
+                    for (int i = 0; i < ids.length; i++) {
+                        dependencies[i] = Integer.parseInt(ids[i]);
+                    }
+                }
+
+                manifest.entries.put(parts[0], new Entry(parts[1], parts[2], dependencies));
+            }
+            return manifest;
+        } catch (IOException | RuntimeException e) {
+            // The manifest is broken, do a full run instead
+            return null;
+        }
+    }
+
+    static void delete(Path outputDir) throws IOException {
+        Files.deleteIfExists(outputDir.resolve(FILE_NAME));
+    }
+
+    static String getName(Path relativePath) {
+        StringJoiner joiner = new StringJoiner("/");
+        for (Path part : relativePath) {
+            joiner.add(part.toString());
+        }
+        return joiner.toString();
+    }
+
+    private String getState(String key) {
+        return this.states.computeIfAbsent(key, this.stateProvider);
+    }
+
+    private int getKeyId(String key) {
+        return this.keyIds.computeIfAbsent(key, k -> {
+            synchronized (this.keys) {
+                this.keys.add(k);
+                return this.keys.size() - 1;
+            }
+        });
+    }
+
+    private int[] getKeyIds(Collection<String> keys) {
+        int[] result = new int[keys.size()];
+        int i = 0;
+        for (String key : keys) {
+            result[i++] = getKeyId(key);
+        }
+        return result;
+    }
+
+    private boolean isUpToDate(IncrementalManifest previous, Entry entry) {
+        for (int id : entry.dependencies) {
+            String key = previous.keys.get(id);
+            if (!getState(key).equals(previous.states.get(key))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the source files that need to be processed by this run. Entries
+     * for files that did not change since the previous run are carried over.
+     * This may be called multiple times, with different source files.
+     *
+     * @param sourceDir The source directory
+     * @param outputDir The output directory
+     * @param sourceFiles The source files
+     * @return The source files to process
+     * @throws IOException If a source file could not be read
+     */
+    String[] collectChanged(Path sourceDir, Path outputDir, String[] sourceFiles) throws IOException {
+        IncrementalManifest previous = this.previous;
+        boolean reuse = previous != null && previous.fingerprint.equals(this.fingerprint);
+
+        List<String> changed = new ArrayList<>();
+        for (String sourceFile : sourceFiles) {
+            Path path = Paths.get(sourceFile);
+            String name = getName(sourceDir.relativize(path));
+            String hash = Fingerprint.of(Files.readAllBytes(path));
+
+            if (reuse) {
+                Entry entry = previous.entries.get(name);
+                if (entry != null && entry.hash.equals(hash) && Files.exists(outputDir.resolve(entry.output))
+                        && isUpToDate(previous, entry)) {
+                    reuse(previous, name, entry);
+                    continue;
+                }
+            }
+
+            this.pending.put(name, hash);
+            changed.add(sourceFile);
+        }
+
+        return changed.toArray(new String[0]);
+    }
+
+    private void reuse(IncrementalManifest previous, String name, Entry entry) {
+        List<String> keys = new ArrayList<>(entry.dependencies.length);
+        for (int id : entry.dependencies) {
+            keys.add(previous.keys.get(id));
+        }
+
+        this.entries.put(name, new Entry(entry.hash, entry.output, getKeyIds(keys)));
+    }
+
+    void record(String name, String output, Set<String> dependencies) {
+        String hash = this.pending.get(name);
+        if (hash != null) {
+            this.entries.put(name, new Entry(hash, output, getKeyIds(dependencies)));
+        }
+    }
+
+    /**
+     * Removes outputs of the previous run that are no longer produced (e.g. because
+     * the source file was deleted or moved to another package) and saves the manifest.
+     *
+     * @param outputDir The output directory
+     * @throws IOException If an output could not be deleted, or the manifest could not be written
+     */
+    void finish(Path outputDir) throws IOException {
+        IncrementalManifest previous = this.previous;
+        if (previous != null) {
+            Set<String> outputs = new HashSet<>();
+            for (Entry entry : this.entries.values()) {
+                outputs.add(entry.output);
+            }
+
+            for (Entry entry : previous.entries.values()) {
+                if (!outputs.contains(entry.output)) {
+                    Files.deleteIfExists(outputDir.resolve(entry.output));
+                }
+            }
+        }
+
+        save(outputDir);
+    }
+
+    /**
+     * Saves the manifest of a run that was cancelled. Outputs of the previous run
+     * are kept, and source files that were not processed yet keep their entries if
+     * their dependencies did not change. The next run checks their content again,
+     * so it continues where this run stopped.
+     *
+     * @param outputDir The output directory
+     * @throws IOException If the manifest could not be written
+     */
+    void cancel(Path outputDir) throws IOException {
+        IncrementalManifest previous = this.previous;
+        if (previous != null && previous.fingerprint.equals(this.fingerprint)) {
+            for (Map.Entry<String, Entry> entry : previous.entries.entrySet()) {
+                if (!this.entries.containsKey(entry.getKey()) && isUpToDate(previous, entry.getValue())) {
+                    reuse(previous, entry.getKey(), entry.getValue());
+                }
+            }
+        }
+
+        save(outputDir);
+    }
+
+    private void save(Path outputDir) throws IOException {
+        Path file = outputDir.resolve(FILE_NAME);
+        Path temp = outputDir.resolve(FILE_NAME + ".tmp");
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(
+                new GZIPOutputStream(Files.newOutputStream(temp)), StandardCharsets.UTF_8))) {
+            writer.write(HEADER);
+            writer.newLine();
+            writer.write(this.fingerprint);
+            writer.newLine();
+
+            writer.write(Integer.toString(this.keys.size()));
+            writer.newLine();
+            for (String key : this.keys) {
+                writer.write(key);
+                writer.write('\t');
+                writer.write(getState(key));
+                writer.newLine();
+            }
+
+            for (Map.Entry<String, Entry> entry : new TreeMap<>(this.entries).entrySet()) {
+                writer.write(entry.getKey());
+                writer.write('\t');
+                writer.write(entry.getValue().hash);
+                writer.write('\t');
+                writer.write(entry.getValue().output);
+                writer.write('\t');
+
+                StringJoiner dependencies = new StringJoiner(",");
+                for (int id : entry.getValue().dependencies) {
+                    dependencies.add(Integer.toString(id));
+                }
+                writer.write(dependencies.toString());
+                writer.newLine();
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static final class Entry {
+
+        final String hash;
+        final String output;
+        final int[] dependencies;
+
+        Entry(String hash, String output, int[] dependencies) {
+            this.hash = hash;
+            this.output = output;
+            this.dependencies = dependencies;
+        }
+
+    }
+
+}
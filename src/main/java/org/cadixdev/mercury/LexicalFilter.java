@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury;
+
+import org.cadixdev.mercury.util.Fingerprint;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Finds source files that contain none of the {@link SourceProcessor#getRelevantNames()
+ * relevant names} of the processors, without parsing them.
+ *
+ * <p>The source is split into identifiers, which are looked up in a hash set.
+ * Comments and string literals are not skipped, so the check may report names
+ * that are not actually used, but never misses one.</p>
+ */
+final class LexicalFilter {
+
+    /**
+     * The dependency recorded for files that were skipped, they need to be checked
+     * again if the relevant names change.
+     */
+    static final String DEPENDENCY_KEY = "mercury:relevant-names";
+
+    static LexicalFilter create(List<SourceProcessor> processors) {
+        if (processors.isEmpty()) {
+            return null;
+        }
+
+        Set<String> names = new HashSet<>();
+        for (SourceProcessor processor : processors) {
+            Set<String> relevantNames = processor.getRelevantNames();
+            if (relevantNames == null) {
+                return null;
+            }
+
+            names.addAll(relevantNames);
+        }
+
+        return new LexicalFilter(names);
+    }
+
+    private final Set<String> names;
+    private String fingerprint;
+
+    private LexicalFilter(Set<String> names) {
+        this.names = names;
+    }
+
+    /**
+     * Returns whether the given source may contain one of the relevant names.
+     *
+     * @param source The source code
+     * @return {@code true} if the source file needs to be processed
+     */
+    boolean matches(String source) {
+        int length = source.length();
+        for (int i = 0; i < length; i++) {
+            char c = source.charAt(i);
+            if (c == '\\' && i + 1 < length && source.charAt(i + 1) == 'u') {
+                // Unicode escapes may be part of identifiers
+                return true;
+            }
+
+            if (Character.isJavaIdentifierStart(c)) {
+                int start = i;
+                while (i + 1 < length && Character.isJavaIdentifierPart(source.charAt(i + 1))) {
+                    i++;
+                }
+
+                if (this.names.contains(source.substring(start, i + 1))) {
+                    return true;
+                }
+            } else if (Character.isJavaIdentifierPart(c)) {
+                // Skip numbers, they cannot start an identifier
+                while (i + 1 < length && Character.isJavaIdentifierPart(source.charAt(i + 1))) {
+                    i++;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    String getFingerprint() {
+        if (this.fingerprint == null) {
+            List<String> names = new ArrayList<>(this.names);
+            Collections.sort(names);
+
+            Fingerprint fingerprint = new Fingerprint().add(names.size());
+            for (String name : names) {
+                fingerprint.add(name);
+            }
+            this.fingerprint = fingerprint.finish();
+        }
+        return this.fingerprint;
+    }
+
+}
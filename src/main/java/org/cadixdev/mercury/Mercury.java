@@ -10,6 +10,9 @@
 
 package org.cadixdev.mercury;
 
+import org.cadixdev.mercury.util.Fingerprint;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
 import org.eclipse.jdt.core.JavaCore;
 import org.eclipse.jdt.core.dom.AST;
 import org.eclipse.jdt.core.dom.ASTParser;
@@ -18,6 +21,10 @@
 import org.eclipse.jdt.core.dom.IBinding;
 import org.eclipse.jdt.core.dom.ITypeBinding;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.FileVisitOption;
@@ -26,11 +33,27 @@
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 public final class Mercury {
@@ -38,6 +61,10 @@ public final class Mercury {
     public static final String JAVA_EXTENSION = ".java";
 
     private static final String[] EMPTY_STRING_ARRAY = new String[0];
+    private static final Object COMPILER_OPTIONS = new Object();
+    private static final int IGNORE_FLAGS = SourceProcessor.FLAG_IGNORE_METHOD_BODIES
+            | SourceProcessor.FLAG_IGNORE_JAVADOC
+            | SourceProcessor.FLAG_IGNORE_BINDINGS_RECOVERY;
 
     private String sourceCompatibility = JavaCore.VERSION_1_8;
     private Charset encoding = StandardCharsets.UTF_8;
@@ -57,17 +84,129 @@ public final class Mercury {
      * for member mappings if this is true.
      */
     private boolean flexibleAnonymousClassMemberLookups = false;
+    /**
+     * The number of threads used for parsing and processing. With more than one
+     * thread, the {@link #batchSize batches} of source files are parsed concurrently,
+     * each by their own {@link ASTParser}, so processors <em>must</em> be safe for
+     * concurrent use.
+     */
+    private int parallelism = 1;
+    /**
+     * The number of processed files that may be waiting to be written. If this is
+     * greater than zero, edits are applied and files are written on separate threads
+     * (as many as {@link #parallelism}), so slow storage does not stall the parser.
+     * Processing blocks while the queue is full.
+     */
+    private int writeQueueCapacity = 0;
+    /**
+     * Mercury will keep a manifest in the output directory if this is true, and skip
+     * source files that did not change since the previous run. All other inputs (the
+     * classpath, source path, configuration and processors) must be unchanged,
+     * otherwise every file is processed again. Only supported if all processors
+     * provide a {@link SourceProcessor#getFingerprint() fingerprint}.
+     *
+     * <p>Note that a file is only processed again if its own content or one of its
+     * recorded {@link SourceContext#addDependency(String) dependencies} changed. Changes
+     * to other source files that affect it (e.g. adding a method that is overridden in
+     * a subclass) still require a full run.</p>
+     */
+    private boolean incremental = false;
+
+    /**
+     * The number of source files that are parsed together. Parsing starts as soon
+     * as the first batch was found, while the source directory is still being
+     * walked. Source files of other batches are resolved through the source path.
+     */
+    private int batchSize = 512;
+
+    /**
+     * The amount of used heap memory (in bytes) above which the {@link ASTParser}
+     * is recycled, or {@code 0} to never recycle it. A parser keeps the bindings of
+     * everything it resolved until all of its source files are processed. If the
+     * threshold is crossed after processing a file, the remaining files are parsed
+     * by a new parser instead, and the processed ones are resolved through the
+     * source path. This happens at most once per garbage collection.
+     */
+    private long memoryThreshold = 0;
+
+    /**
+     * The file used to keep an index of the archives on the classpath between runs,
+     * or {@code null} to not use one. Archives whose packages and classes are all
+     * provided by earlier classpath entries are left out.
+     */
+    private Path classPathIndex;
+
+    /**
+     * The directory used to cache signature-only copies of the archives on the
+     * classpath, or {@code null} to pass the archives to the parser as-is. The
+     * copies leave out method bodies and debug information, which are never
+     * needed to resolve bindings.
+     */
+    private Path classPathStubs;
+
+    /**
+     * The directory used to cache the compiled source path, or {@code null} to
+     * parse the source files on the source path whenever they are needed. The
+     * source path is compiled again when the content of one of its source files
+     * changes.
+     */
+    private Path sourcePathCache;
+
+    /**
+     * Receives the progress of each run, may be {@code null}.
+     */
+    private ProgressListener progressListener;
+
+    /**
+     * Receive the {@link Metrics} of each run. Metrics are only recorded if
+     * there is at least one exporter.
+     */
+    private final List<MetricsExporter> metricsExporters = new ArrayList<>();
 
     private final List<Path> classPath = new ArrayList<>();
     private final List<Path> sourcePath = new ArrayList<>();
+    /**
+     * Globs for the source files to process, relative to the source directory
+     * (e.g. {@code com/example/**}), or package rules (e.g. {@code com.example.**}).
+     * All source files are processed if empty.
+     */
+    private final List<String> includes = new ArrayList<>();
+    /**
+     * Globs or package rules for the source files to skip, relative to the source
+     * directory.
+     * Excluded files are neither processed nor written to the output directory,
+     * but can still be referenced by other source files.
+     */
+    private final List<String> excludes = new ArrayList<>();
 
-    private final Map<Object, Object> context = new HashMap<>();
+    private final Map<Object, Object> context = new ConcurrentHashMap<>();
+    /**
+     * The session that keeps the {@link #getSessionContext() session context}
+     * between runs, or {@code null} to discard it after each run.
+     */
+    private MercurySession session;
+    private Map<Object, Object> sessionContext;
     private Path sourceDir;
+    /**
+     * The source files of the current run, if they are held in memory instead
+     * of in the {@link #sourceDir source directory}.
+     */
+    private Map<String, String> sources;
     private Path outputDir;
+    private List<RewriteTarget> targets = Collections.emptyList();
 
     private final List<SourceProcessor> processors = new ArrayList<>();
 
-    private final FileASTRequestor requestor = new Requestor();
+    private final ThreadLocal<Requestor> requestor = new ThreadLocal<>();
+    private final AtomicLong recycledAt = new AtomicLong(-1);
+    private volatile boolean cancelled;
+    private ProgressTracker progress;
+    private MetricsRecorder metrics;
+    private String[] resolvedClassPath;
+    private List<Path> resolvedSourcePath;
+    private RewriteWriter writer;
+    private IncrementalManifest manifest;
+    private LexicalFilter filter;
 
     public String getSourceCompatibility() {
         return this.sourceCompatibility;
@@ -109,6 +248,106 @@ public void setFlexibleAnonymousClassMemberLookups(final boolean enable) {
         this.flexibleAnonymousClassMemberLookups = enable;
     }
 
+    public int getParallelism() {
+        return this.parallelism;
+    }
+
+    public void setParallelism(final int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be at least 1");
+        }
+        this.parallelism = parallelism;
+    }
+
+    public int getWriteQueueCapacity() {
+        return this.writeQueueCapacity;
+    }
+
+    public void setWriteQueueCapacity(final int capacity) {
+        if (capacity < 0) {
+            throw new IllegalArgumentException("capacity must not be negative");
+        }
+        this.writeQueueCapacity = capacity;
+    }
+
+    public boolean isIncremental() {
+        return this.incremental;
+    }
+
+    public void setIncremental(final boolean enable) {
+        this.incremental = enable;
+    }
+
+    public int getBatchSize() {
+        return this.batchSize;
+    }
+
+    public void setBatchSize(final int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1");
+        }
+        this.batchSize = batchSize;
+    }
+
+    public long getMemoryThreshold() {
+        return this.memoryThreshold;
+    }
+
+    public void setMemoryThreshold(final long memoryThreshold) {
+        if (memoryThreshold < 0) {
+            throw new IllegalArgumentException("memoryThreshold must not be negative");
+        }
+        this.memoryThreshold = memoryThreshold;
+    }
+
+    public ProgressListener getProgressListener() {
+        return this.progressListener;
+    }
+
+    public void setProgressListener(final ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    public List<MetricsExporter> getMetricsExporters() {
+        return this.metricsExporters;
+    }
+
+    /**
+     * Cancels the run that is currently in progress, which then fails with a
+     * {@link CancellationException}. Files that were processed completely are
+     * still written, and incremental runs save their manifest, so the next run
+     * does not need to process these files again.
+     *
+     * <p>This may be called from any thread.</p>
+     */
+    public void cancel() {
+        this.cancelled = true;
+    }
+
+    public Path getClassPathIndex() {
+        return this.classPathIndex;
+    }
+
+    public void setClassPathIndex(final Path classPathIndex) {
+        this.classPathIndex = classPathIndex;
+    }
+
+    public Path getClassPathStubs() {
+        return this.classPathStubs;
+    }
+
+    public void setClassPathStubs(final Path classPathStubs) {
+        this.classPathStubs = classPathStubs;
+    }
+
+    public Path getSourcePathCache() {
+        return this.sourcePathCache;
+    }
+
+    public void setSourcePathCache(final Path sourcePathCache) {
+        this.sourcePathCache = sourcePathCache;
+    }
+
     public List<Path> getClassPath() {
         return this.classPath;
     }
@@ -117,6 +356,14 @@ public List<Path> getSourcePath() {
         return this.sourcePath;
     }
 
+    public List<String> getIncludes() {
+        return this.includes;
+    }
+
+    public List<String> getExcludes() {
+        return this.excludes;
+    }
+
     public List<SourceProcessor> getProcessors() {
         return this.processors;
     }
@@ -133,6 +380,46 @@ public Map<Object, Object> getContext() {
         return this.context;
     }
 
+    public MercurySession getSession() {
+        return this.session;
+    }
+
+    public void setSession(final MercurySession session) {
+        this.session = session;
+    }
+
+    /**
+     * Returns the context for state that only depends on the environment (the
+     * source files, classpath and source path), but not on the processors. If a
+     * {@link #setSession(MercurySession) session} is set, it is kept for later runs,
+     * otherwise it is discarded like {@link #getContext()}.
+     *
+     * @return The session context
+     * @throws IllegalStateException If this instance is not currently processing
+     */
+    public Map<Object, Object> getSessionContext() {
+        if (this.sessionContext == null) {
+            throw new IllegalStateException("The session context is only available while processing");
+        }
+        return this.sessionContext;
+    }
+
+    /**
+     * Returns the context for state that holds on to the bindings of the parser
+     * on the current thread. Bindings may only be used with the parser that
+     * created them, so the context is discarded whenever the parser is replaced.
+     *
+     * @return The parser context
+     * @throws IllegalStateException If this thread is not currently processing
+     */
+    public Map<Object, Object> getParserContext() {
+        Requestor requestor = this.requestor.get();
+        if (requestor == null) {
+            throw new IllegalStateException("The parser context is only available while processing");
+        }
+        return requestor.parserContext;
+    }
+
     public Optional<ITypeBinding> createTypeBinding(String className) {
         if (isAnonymousOrLocalType(className)) {
             // TODO: Anonymous or local types are currently not supported
@@ -141,7 +428,12 @@ public Optional<ITypeBinding> createTypeBinding(String className) {
             return Optional.empty();
         }
 
-        IBinding binding = this.requestor.createBindings(new String[]{'L' + className.replace('.', '/') + ';'})[0];
+        Requestor requestor = this.requestor.get();
+        if (requestor == null) {
+            throw new IllegalStateException("Type bindings can only be created while processing");
+        }
+
+        IBinding binding = requestor.createBindings(new String[]{'L' + className.replace('.', '/') + ';'})[0];
         return binding != null && binding.getKind() == IBinding.TYPE ? Optional.of((ITypeBinding) binding) : Optional.empty();
     }
 
@@ -177,78 +469,737 @@ public void rewrite(Path sourceDir, Path outputDir) throws Exception {
         try {
             this.sourceDir = Objects.requireNonNull(sourceDir, "sourceDir");
             this.outputDir = Objects.requireNonNull(outputDir, "outputDir");
+            this.targets = Collections.singletonList(new RewriteTarget(outputDir));
+            run();
+        } finally {
+            cleanup();
+        }
+    }
+
+    /**
+     * Rewrites the source files into the given sink, e.g. an archive.
+     *
+     * <p>{@link #setIncremental(boolean) Incremental} runs are only supported
+     * for output directories.</p>
+     *
+     * @param sourceDir The source directory
+     * @param sink The sink for the output files, not closed by this method
+     * @throws Exception If processing fails
+     */
+    public void rewrite(Path sourceDir, OutputSink sink) throws Exception {
+        rewrite(sourceDir, Collections.singletonList(new RewriteTarget(sink)));
+    }
+
+    /**
+     * Rewrites the source files for several targets at once. Each source file is
+     * only parsed once, then each target rewrites it with the processors of this
+     * instance followed by its own processors, and writes the result to its own
+     * output.
+     *
+     * <p>{@link #setIncremental(boolean) Incremental} runs are not supported
+     * for multiple targets, all files are processed.</p>
+     *
+     * @param sourceDir The source directory
+     * @param targets The targets
+     * @throws Exception If processing fails
+     */
+    public void rewrite(Path sourceDir, List<RewriteTarget> targets) throws Exception {
+        if (this.sourceDir != null) {
+            throw new IllegalStateException("Instance is currently processing: " + this.sourceDir);
+        }
+        if (targets.isEmpty()) {
+            throw new IllegalArgumentException("No targets to rewrite");
+        }
+
+        try {
+            this.sourceDir = Objects.requireNonNull(sourceDir, "sourceDir");
+            this.targets = new ArrayList<>(targets);
+            run();
+        } finally {
+            cleanup();
+        }
+    }
+
+    /**
+     * Processes source files that are held in memory.
+     *
+     * @param sources The source code, by path relative to the source root
+     *     (e.g. {@code com/example/Test.java})
+     * @throws Exception If processing fails
+     * @see #rewrite(Map)
+     */
+    public void process(Map<String, String> sources) throws Exception {
+        if (this.sourceDir != null || this.sources != null) {
+            throw new IllegalStateException("Instance is currently processing");
+        }
+
+        try {
+            this.sources = checkSources(sources);
+            run();
+        } finally {
+            cleanup();
+        }
+    }
+
+    /**
+     * Rewrites source files that are held in memory, and returns the results in
+     * memory instead of writing them to an output directory.
+     *
+     * <p>The sources are never written to disk, each of them is parsed on its own.
+     * Types declared by the other sources can therefore not be resolved, unless
+     * they are found on the {@link #getSourcePath() source path} or
+     * {@link #getClassPath() classpath}. {@link #createTypeBinding(String)} is not
+     * supported while processing sources in memory.</p>
+     *
+     * @param sources The source code, by path relative to the source root
+     *     (e.g. {@code com/example/Test.java})
+     * @return The rewritten source code, by path relative to the output root
+     * @throws Exception If processing fails
+     */
+    public Map<String, String> rewrite(Map<String, String> sources) throws Exception {
+        if (this.sourceDir != null || this.sources != null) {
+            throw new IllegalStateException("Instance is currently processing");
+        }
+
+        Map<String, String> result = new ConcurrentHashMap<>();
+        OutputSink sink = (path, content) -> result.put(path, new String(content, this.encoding));
+        try {
+            this.sources = checkSources(sources);
+            this.targets = Collections.singletonList(new RewriteTarget(sink));
             run();
         } finally {
             cleanup();
         }
+
+        return new TreeMap<>(result);
+    }
+
+    private static Map<String, String> checkSources(Map<String, String> sources) {
+        for (String path : sources.keySet()) {
+            Path normalized = Paths.get(path).normalize();
+            if (normalized.isAbsolute() || normalized.startsWith("..") || !path.endsWith(JAVA_EXTENSION)) {
+                throw new IllegalArgumentException("Invalid source file path: " + path);
+            }
+        }
+        return new TreeMap<>(sources);
+    }
+
+    static void deleteRecursively(Path dir) throws IOException {
+        List<Path> paths;
+        try (Stream<Path> stream = Files.walk(dir)) {
+            paths = stream.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+        }
+        for (Path path : paths) {
+            Files.deleteIfExists(path);
+        }
     }
 
     private void cleanup() {
         this.sourceDir = null;
+        this.sources = null;
         this.outputDir = null;
+        this.targets = Collections.emptyList();
         this.context.clear();
+        this.sessionContext = null;
+        this.progress = null;
+        this.resolvedClassPath = null;
+        this.resolvedSourcePath = null;
+
+        if (this.metrics != null) {
+            Metrics metrics = this.metrics.finish();
+            this.metrics = null;
+            for (MetricsExporter exporter : this.metricsExporters) {
+                exporter.export(metrics);
+            }
+        }
     }
 
-    private void run() throws Exception {
-        ASTParser parser = ASTParser.newParser(AST.JLS10);
+    /**
+     * Returns the metrics of the current run, or {@code null} if they are not recorded.
+     */
+    MetricsRecorder getMetrics() {
+        return this.metrics;
+    }
 
-        // Set Java version
-        Map<String, String> options = JavaCore.getOptions();
-        JavaCore.setComplianceOptions(this.sourceCompatibility, options);
-        parser.setCompilerOptions(options);
+    private long addPhaseTime(String phase, long start) {
+        long now = System.nanoTime();
+        if (this.metrics != null) {
+            this.metrics.addPhaseTime(phase, now - start);
+        }
+        return now;
+    }
+
+    private void run() throws Exception {
+        this.cancelled = false;
+        this.progress = new ProgressTracker(this.progressListener);
+        this.metrics = this.metricsExporters.isEmpty() ? null : new MetricsRecorder();
+        long time = System.nanoTime();
+        List<SourceProcessor> processors = getAllProcessors();
 
-        // Collect processor flags
+        // Collect processor flags, parts of the source files are only ignored if no processor needs them
         int flags = 0;
+        int ignored = IGNORE_FLAGS;
+        for (SourceProcessor processor : processors) {
+            int processorFlags = processor.getFlags();
+            flags |= processorFlags & ~IGNORE_FLAGS;
+            ignored &= processorFlags;
+        }
+        flags |= ignored;
+
+        this.sessionContext = this.session != null ? this.session.open(computeEnvironment()) : new ConcurrentHashMap<>();
+
+        // The resolved environment only depends on the environment and the caches, so it is kept for the session
+        List<Object> environmentKey = Arrays.asList(ResolvedEnvironment.class, this.classPathIndex, this.classPathStubs, this.sourcePathCache);
+        ResolvedEnvironment environment = (ResolvedEnvironment) this.sessionContext.get(environmentKey);
+        if (environment == null || !Arrays.stream(environment.classPath).allMatch(path -> Files.exists(Paths.get(path)))) {
+            environment = resolveEnvironment();
+            this.sessionContext.put(environmentKey, environment);
+        }
+        this.resolvedClassPath = environment.classPath;
+        this.resolvedSourcePath = environment.sourcePath;
+
+        this.filter = LexicalFilter.create(processors);
+
+        if (this.incremental && this.outputDir != null) {
+            String fingerprint = computeFingerprint();
+            if (fingerprint != null) {
+                this.manifest = new IncrementalManifest(fingerprint, IncrementalManifest.read(this.outputDir), this::getDependencyState);
+            } else {
+                // Not supported by the processors, the manifest would be outdated
+                IncrementalManifest.delete(this.outputDir);
+            }
+        }
+
+        time = addPhaseTime(Metrics.PHASE_PREPARE, time);
+        for (SourceProcessor processor : processors) {
+            processor.initialize(this);
+        }
+        addPhaseTime(Metrics.PHASE_INITIALIZE, time);
+
+        if (!this.targets.isEmpty() && this.writeQueueCapacity > 0) {
+            this.writer = new RewriteWriter(this.writeQueueCapacity, this.parallelism, this.progress::written);
+        }
+
+        try {
+            SourceDiscovery discovery = this.sources == null
+                    ? new SourceDiscovery(this.sourceDir, this.includes, this.excludes, this.batchSize)
+                    : null;
+            if (discovery == null) {
+                parseInMemory(flags);
+            } else if (this.parallelism > 1) {
+                parseParallel(flags, discovery);
+            } else {
+                parseSequential(flags, discovery);
+            }
+
+            if (this.writer != null) {
+                // Wait for the remaining files to be written
+                this.writer.finish();
+            }
+
+            if (this.manifest != null) {
+                this.manifest.finish(this.outputDir);
+            }
+        } catch (CancellationException e) {
+            // Keep everything that was processed completely
+            if (this.writer != null) {
+                this.writer.finish();
+            }
+            if (this.manifest != null) {
+                this.manifest.cancel(this.outputDir);
+            }
+            throw e;
+        } finally {
+            if (this.writer != null) {
+                this.writer.abort();
+                this.writer = null;
+            }
+            this.manifest = null;
+            this.filter = null;
+        }
+
+        time = System.nanoTime();
+        for (SourceProcessor processor : processors) {
+            processor.finish(this);
+        }
+        addPhaseTime(Metrics.PHASE_FINISH, time);
+    }
+
+    /**
+     * Returns the processors of this instance and of all targets, without duplicates.
+     */
+    private List<SourceProcessor> getAllProcessors() {
+        List<SourceProcessor> processors = new ArrayList<>(this.processors);
+        for (RewriteTarget target : this.targets) {
+            for (SourceProcessor processor : target.getProcessors()) {
+                if (processors.stream().noneMatch(p -> p == processor)) {
+                    processors.add(processor);
+                }
+            }
+        }
+        return processors;
+    }
+
+    /**
+     * Applies the {@link #setClassPathIndex(Path) classpath index}, the
+     * {@link #setClassPathStubs(Path) classpath stubs} and the
+     * {@link #setSourcePathCache(Path) source path cache} to the environment.
+     */
+    private ResolvedEnvironment resolveEnvironment() throws IOException {
+        List<Path> classPath = this.classPath;
+        if (this.classPathIndex != null) {
+            ClasspathIndex index = ClasspathIndex.read(this.classPathIndex);
+            classPath = index.prune(classPath);
+            index.save();
+        }
+        if (this.classPathStubs != null) {
+            classPath = ClasspathStubs.get(this.classPathStubs, classPath);
+        }
+
+        List<Path> sourcePath = this.sourcePath;
+        if (this.sourcePathCache != null && !this.sourcePath.isEmpty()) {
+            // Source directories are resolved from their compiled classes instead
+            List<Path> sourceDirs = this.sourcePath.stream().filter(Files::isDirectory).collect(Collectors.toList());
+            if (!sourceDirs.isEmpty()) {
+                // The compiled source path takes precedence over the classpath, like the source path itself
+                Path classes = SourcePathCache.get(this.sourcePathCache, sourceDirs, classPath, this.sourceCompatibility, this.encoding);
+                classPath = new ArrayList<>(classPath);
+                classPath.add(0, classes);
+                sourcePath = this.sourcePath.stream().filter(path -> !Files.isDirectory(path)).collect(Collectors.toList());
+            }
+        }
+        return new ResolvedEnvironment(toArray(classPath.stream()), sourcePath);
+    }
+
+    private String computeEnvironment() throws IOException {
+        Fingerprint fingerprint = new Fingerprint();
+        if (this.sources != null) {
+            fingerprint.add(this.sources.size());
+            for (Map.Entry<String, String> entry : this.sources.entrySet()) {
+                fingerprint.add(entry.getKey()).add(entry.getValue());
+            }
+        } else {
+            addEnvironment(fingerprint, this.sourceDir.toAbsolutePath());
+        }
+        addEnvironment(fingerprint);
+        return fingerprint.finish();
+    }
+
+    private String computeFingerprint() throws IOException {
+        Fingerprint fingerprint = new Fingerprint();
+        addEnvironment(fingerprint);
+        fingerprint.add(this.gracefulClasspathChecks)
+                .add(this.gracefulJavadocClasspathChecks)
+                .add(this.flexibleAnonymousClassMemberLookups);
+
+        fingerprint.add(this.processors.size());
         for (SourceProcessor processor : this.processors) {
-            flags |= processor.getFlags();
+            String processorFingerprint = processor.getFingerprint();
+            if (processorFingerprint == null) {
+                return null;
+            }
+
+            fingerprint.add(processor.getClass().getName()).add(processorFingerprint);
+        }
+
+        return fingerprint.finish();
+    }
+
+    private String getDependencyState(String key) {
+        if (key.equals(LexicalFilter.DEPENDENCY_KEY)) {
+            return this.filter != null ? this.filter.getFingerprint() : "";
+        }
+
+        StringJoiner joiner = new StringJoiner(";");
+        for (SourceProcessor processor : this.processors) {
+            String state = processor.getDependencyState(key);
+            if (state != null) {
+                joiner.add(state);
+            }
+        }
+        return joiner.toString();
+    }
+
+    private void addEnvironment(Fingerprint fingerprint) throws IOException {
+        fingerprint.add(this.sourceCompatibility).add(this.encoding.name());
+
+        fingerprint.add(this.classPath.size());
+        for (Path path : this.classPath) {
+            addEnvironment(fingerprint, path);
+        }
+
+        fingerprint.add(this.sourcePath.size());
+        for (Path path : this.sourcePath) {
+            addEnvironment(fingerprint, path);
+        }
+    }
+
+    private static void addEnvironment(Fingerprint fingerprint, Path path) throws IOException {
+        fingerprint.add(path.toString());
+
+        if (Files.isDirectory(path)) {
+            List<Path> files;
+            try (Stream<Path> stream = Files.walk(path, FileVisitOption.FOLLOW_LINKS)) {
+                files = stream.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+            }
+
+            for (Path file : files) {
+                fingerprint.add(path.relativize(file).toString())
+                        .add(Files.size(file))
+                        .add(Files.getLastModifiedTime(file).toMillis());
+            }
+        } else if (Files.exists(path)) {
+            fingerprint.add(Files.size(path)).add(Files.getLastModifiedTime(path).toMillis());
+        }
+    }
+
+    /**
+     * Returns the source files that need to be parsed, skipping the ones that are
+     * unchanged since the previous incremental run or not affected by the processors.
+     */
+    private String[] select(List<Path> files) throws IOException {
+        String[] sourceFiles = toArray(files.stream());
+        if (this.manifest != null) {
+            sourceFiles = this.manifest.collectChanged(this.sourceDir, this.outputDir, sourceFiles);
+        }
+        if (this.filter != null) {
+            sourceFiles = filter(sourceFiles);
+        }
+        this.progress.skipped(files.size() - sourceFiles.length);
+        return sourceFiles;
+    }
+
+    private String[] getSourcePath(boolean includeSourceDir) {
+        return toArray(includeSourceDir
+                ? Stream.concat(Stream.of(this.sourceDir), this.resolvedSourcePath.stream())
+                : this.resolvedSourcePath.stream());
+    }
+
+    /**
+     * Removes the source files that contain none of the relevant names of the
+     * processors, and copies them to the outputs unchanged.
+     */
+    private String[] filter(String[] sourceFiles) throws IOException {
+        List<String> result = new ArrayList<>(sourceFiles.length);
+        for (String sourceFile : sourceFiles) {
+            Path path = Paths.get(sourceFile);
+            String source = new String(Files.readAllBytes(path), this.encoding);
+            if (this.filter.matches(source)) {
+                result.add(sourceFile);
+            } else if (!this.targets.isEmpty()) {
+                String name = IncrementalManifest.getName(this.sourceDir.relativize(path));
+                long time = System.nanoTime();
+                for (RewriteTarget target : this.targets) {
+                    FlightEvents.Write event = FlightEvents.beginWrite();
+                    target.getSink().copy(name, path);
+                    if (event != null) {
+                        event.commitCopy(name, path);
+                    }
+                    this.progress.written();
+                    if (this.metrics != null) {
+                        this.metrics.copied();
+                    }
+                }
+                addPhaseTime(Metrics.PHASE_WRITE, time);
+
+                if (this.manifest != null) {
+                    this.manifest.record(name, name, Collections.singleton(LexicalFilter.DEPENDENCY_KEY));
+                }
+            }
         }
+        return result.toArray(EMPTY_STRING_ARRAY);
+    }
+
+    private ASTParser createParser(int flags, String[] sourcePath) {
+        ASTParser parser = ASTParser.newParser(AST.JLS10);
+
+        // Set Java version
+        @SuppressWarnings("unchecked")
+        Map<String, String> options = (Map<String, String>) this.sessionContext.computeIfAbsent(COMPILER_OPTIONS, k -> {
+            Map<String, String> defaults = JavaCore.getOptions();
+            JavaCore.setComplianceOptions(this.sourceCompatibility, defaults);
+            return Collections.unmodifiableMap(defaults);
+        });
+        Map<String, String> compilerOptions = new HashMap<>(options);
+        if ((flags & SourceProcessor.FLAG_IGNORE_JAVADOC) != 0) {
+            // Javadoc comments are kept, but their tags are not parsed
+            compilerOptions.put(JavaCore.COMPILER_DOC_COMMENT_SUPPORT, JavaCore.DISABLED);
+        }
+        parser.setCompilerOptions(compilerOptions);
+
+        parser.setIgnoreMethodBodies((flags & SourceProcessor.FLAG_IGNORE_METHOD_BODIES) != 0);
 
         if ((flags & SourceProcessor.FLAG_RESOLVE_BINDINGS) != 0) {
             // Resolve references
             parser.setResolveBindings(true);
-            parser.setBindingsRecovery(true);
+            parser.setBindingsRecovery((flags & SourceProcessor.FLAG_IGNORE_BINDINGS_RECOVERY) == 0);
         }
 
         // Set environment
-        String[] sourcePath = toArray(this.sourcePath.stream());
-        parser.setEnvironment(toArray(this.classPath.stream()), sourcePath, getEncodings(sourcePath), true);
+        parser.setEnvironment(this.resolvedClassPath, sourcePath, getEncodings(sourcePath), true);
+        return parser;
+    }
 
-        // Walk directory to find source files
-        String[] sourceFiles = toArray(Files.walk(this.sourceDir, FileVisitOption.FOLLOW_LINKS)
-                .filter(p -> p.getFileName() != null && p.getFileName().toString().endsWith(JAVA_EXTENSION)));
+    private void parse(int flags, String[] sourcePath, String[] sourceFiles) {
+        Requestor requestor = new Requestor();
+        this.requestor.set(requestor);
 
-        for (SourceProcessor processor : this.processors) {
-            processor.initialize(this);
+        long time = System.nanoTime();
+        try {
+            while (sourceFiles.length > 0) {
+                try {
+                    requestor.parserContext.clear();
+                    requestor.beginParseEvent(true);
+                    createParser(flags, sourcePath).createASTs(sourceFiles, getEncodings(sourceFiles), EMPTY_STRING_ARRAY, requestor, new Monitor());
+                    return;
+                } catch (OperationCanceledException e) {
+                    throw new CancellationException("The run was cancelled");
+                } catch (RecycleParser e) {
+                    // Continue with a new parser, the processed files are resolved through the source path
+                    sourceFiles = requestor.getRemaining(sourceFiles);
+                    sourcePath = getSourcePath(true);
+                }
+            }
+        } finally {
+            this.requestor.remove();
+            // Processing and writing the accepted files is recorded separately
+            addPhaseTime(Metrics.PHASE_PARSE, time + requestor.acceptTime);
         }
+    }
 
-        // Parse source files
-        parser.createASTs(sourceFiles, getEncodings(sourceFiles), EMPTY_STRING_ARRAY, this.requestor, null);
+    /**
+     * Parses the {@link #sources source files held in memory}, each with its own
+     * {@link ASTParser}.
+     */
+    private void parseInMemory(int flags) {
+        this.progress.discovered(this.sources.size());
+        this.progress.discoveryComplete();
 
-        for (SourceProcessor processor : this.processors) {
-            processor.finish(this);
+        String[] sourcePath = getSourcePath(false);
+        Requestor requestor = new Requestor();
+        this.requestor.set(requestor);
+
+        long time = System.nanoTime();
+        try {
+            for (Map.Entry<String, String> entry : this.sources.entrySet()) {
+                checkCancelled();
+                ASTParser parser = createParser(flags, sourcePath);
+                parser.setUnitName(entry.getKey());
+                parser.setSource(entry.getValue().toCharArray());
+
+                requestor.parserContext.clear();
+                requestor.beginParseEvent(true);
+                CompilationUnit ast;
+                try {
+                    ast = (CompilationUnit) parser.createAST(new Monitor());
+                } catch (OperationCanceledException e) {
+                    throw new CancellationException("The run was cancelled");
+                }
+                requestor.accept(entry.getKey(), ast, entry.getValue());
+            }
+        } finally {
+            this.requestor.remove();
+            addPhaseTime(Metrics.PHASE_PARSE, time + requestor.acceptTime);
         }
     }
 
-    private SourceContext createContext(String sourceFilePath, CompilationUnit ast) {
+    private boolean shouldRecycleParser() {
+        if (ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() <= this.memoryThreshold) {
+            return false;
+        }
+
+        // Garbage that was not collected yet counts as used memory as well, so only
+        // recycle once per collection. Otherwise every file would recycle the parser.
+        long collections = 0;
+        for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+            collections += Math.max(collector.getCollectionCount(), 0);
+        }
+
+        long recycledAt = this.recycledAt.get();
+        return collections != recycledAt && this.recycledAt.compareAndSet(recycledAt, collections);
+    }
+
+    /**
+     * Parses the source files in batches while the source directory is walked.
+     * Each batch is parsed by its own {@link ASTParser}, the source files of other
+     * batches are resolved through the source path.
+     */
+    /**
+     * Parses the batches of source files on the current thread, while the source
+     * directory is still being walked. The source directory is only added to the
+     * source path if the files are parsed in more than one batch, or some of them
+     * are not parsed at all.
+     */
+    private void parseSequential(int flags, SourceDiscovery discovery) throws IOException {
+        // The last batch is held back until the next one is found, so a single
+        // batch is still parsed without the source directory on the source path
+        String[][] held = {null};
+        boolean[] includeSourceDir = {false};
+        discovery.walk(1, batch -> {
+            checkCancelled();
+            this.progress.discovered(batch.size());
+
+            String[] sourceFiles;
+            try {
+                sourceFiles = select(batch);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            // Source files that are not parsed (e.g. because they are unchanged) or
+            // parsed in another batch are resolved through the source path instead
+            if (sourceFiles.length < batch.size()) {
+                includeSourceDir[0] = true;
+            }
+            if (held[0] != null) {
+                includeSourceDir[0] = true;
+                parse(flags, getSourcePath(true), held[0]);
+            }
+            held[0] = sourceFiles.length > 0 ? sourceFiles : null;
+        });
+        this.progress.discoveryComplete();
+
+        if (held[0] != null) {
+            parse(flags, getSourcePath(includeSourceDir[0] || discovery.getExcludedCount() > 0), held[0]);
+        }
+    }
+
+    private void parseParallel(int flags, SourceDiscovery discovery) throws Exception {
+        String[] sourcePath = getSourcePath(true);
+        ExecutorService executor = Executors.newFixedThreadPool(this.parallelism);
+
+        try {
+            Queue<Future<?>> futures = new ConcurrentLinkedQueue<>();
+            Throwable failure = null;
+            try {
+                discovery.walk(this.parallelism, batch -> {
+                    checkCancelled();
+                    this.progress.discovered(batch.size());
+
+                    String[] sourceFiles;
+                    try {
+                        sourceFiles = select(batch);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+
+                    if (sourceFiles.length > 0) {
+                        futures.add(executor.submit(() -> parse(flags, sourcePath, sourceFiles)));
+                    }
+                });
+                this.progress.discoveryComplete();
+            } catch (Exception e) {
+                failure = e;
+            }
+
+            // After a failure, the other batches are stopped at their next file. They are still
+            // awaited, so every file that was recorded in the manifest is also written.
+            for (Future<?> future : futures) {
+                if (failure != null) {
+                    this.cancelled = true;
+                }
+
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    if (failure == null) {
+                        failure = e.getCause() != null ? e.getCause() : e;
+                    }
+                }
+            }
+
+            if (failure instanceof Exception) {
+                throw (Exception) failure;
+            } else if (failure instanceof Error) {
+                throw (Error) failure;
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void checkCancelled() {
+        if (this.cancelled) {
+            throw new CancellationException("The run was cancelled");
+        }
+    }
+
+    void accept(String sourceFilePath, CompilationUnit ast) {
+        accept(sourceFilePath, ast, null);
+    }
+
+    /**
+     * Processes a parsed source file.
+     *
+     * @param sourceFilePath The path of the source file
+     * @param ast The compilation unit
+     * @param source The source code if it is held in memory, or {@code null}
+     *     to read it from the source file
+     */
+    private void accept(String sourceFilePath, CompilationUnit ast, String source) {
+        checkCancelled();
         Path sourceFile = Paths.get(sourceFilePath);
         String fileName = sourceFile.getFileName().toString();
         String primaryType = fileName.substring(0, fileName.length() - JAVA_EXTENSION.length());
 
-        if (this.outputDir != null) {
-            return new RewriteContext(this, sourceFile, ast, primaryType);
-        } else {
-            return new SourceContext(this, sourceFile, ast, primaryType);
+        if (this.targets.isEmpty()) {
+            long time = System.nanoTime();
+            SourceContext context = new SourceContext(this, sourceFile, ast, primaryType);
+            if (source != null) {
+                context.setSource(source);
+            }
+            process(context, this.processors);
+            addPhaseTime(Metrics.PHASE_PROCESS, time);
+            this.progress.parsed(sourceFile);
+            return;
         }
+
+        // The bindings are only resolved once, each target records its own edits
+        for (RewriteTarget target : this.targets) {
+            RewriteContext context = new RewriteContext(this, target.getSink(), sourceFile, ast, primaryType);
+            if (source != null) {
+                context.setSource(source);
+            }
+            if (this.manifest != null) {
+                context.trackDependencies();
+            }
+
+            long time = System.nanoTime();
+            process(context, this.processors);
+            process(context, target.getProcessors());
+            addPhaseTime(Metrics.PHASE_PROCESS, time);
+
+            if (this.manifest != null) {
+                this.manifest.record(IncrementalManifest.getName(this.sourceDir.relativize(sourceFile)),
+                        context.getOutputPath(),
+                        context.getDependencies());
+            }
+
+            write(context);
+        }
+        this.progress.parsed(sourceFile);
     }
 
-    void accept(String sourceFilePath, CompilationUnit ast) {
-        SourceContext context = createContext(sourceFilePath, ast);
+    private static void process(SourceContext context, List<SourceProcessor> processors) {
+        try {
+            context.process(processors);
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to process: " + context.getSourceFile(), e);
+        }
+    }
+
+    private void write(RewriteContext context) {
+        if (this.writer != null) {
+            this.writer.submit(context);
+            return;
+        }
 
         try {
-            context.process(this.processors);
+            context.write();
         } catch (Exception e) {
-            throw new RuntimeException("Failed to process: " + sourceFilePath, e);
+            throw new RuntimeException("Failed to write: " + context.getSourceFile(), e);
         }
+        this.progress.written();
     }
 
     private static String[] toArray(Stream<Path> stream) {
@@ -268,9 +1219,86 @@ private String[] getEncodings(String[] files) {
 
     private class Requestor extends FileASTRequestor {
 
+        private final Set<String> accepted = new HashSet<>();
+        private final Map<Object, Object> parserContext = new HashMap<>();
+        private long acceptTime;
+        private FlightEvents.ParseUntilAccepted parseEvent;
+
+        /**
+         * Starts the event for the time until the next source file is accepted,
+         * see {@link FlightEvents.ParseUntilAccepted}.
+         *
+         * @param firstInBatch Whether the parser has not accepted any source file
+         *     of its batch yet
+         */
+        void beginParseEvent(boolean firstInBatch) {
+            this.parseEvent = FlightEvents.beginParse(firstInBatch);
+        }
+
         @Override
         public void acceptAST(String sourceFilePath, CompilationUnit ast) {
-            accept(sourceFilePath, ast);
+            accept(sourceFilePath, ast, null);
+            beginParseEvent(false);
+
+            if (Mercury.this.memoryThreshold > 0) {
+                this.accepted.add(sourceFilePath);
+                if (shouldRecycleParser()) {
+                    throw new RecycleParser();
+                }
+            }
+        }
+
+        void accept(String sourceFilePath, CompilationUnit ast, String source) {
+            if (this.parseEvent != null) {
+                this.parseEvent.commit(sourceFilePath, ast);
+                this.parseEvent = null;
+            }
+
+            long time = System.nanoTime();
+            try {
+                Mercury.this.accept(sourceFilePath, ast, source);
+            } finally {
+                this.acceptTime += System.nanoTime() - time;
+            }
+        }
+
+        String[] getRemaining(String[] sourceFiles) {
+            return Arrays.stream(sourceFiles).filter(file -> !this.accepted.contains(file)).toArray(String[]::new);
+        }
+
+    }
+
+    private static final class ResolvedEnvironment {
+
+        final String[] classPath;
+        final List<Path> sourcePath;
+
+        ResolvedEnvironment(String[] classPath, List<Path> sourcePath) {
+            this.classPath = classPath;
+            this.sourcePath = sourcePath;
+        }
+
+    }
+
+    /**
+     * Lets the parser check if the run was {@link #cancel() cancelled}.
+     */
+    private class Monitor extends NullProgressMonitor {
+
+        @Override
+        public boolean isCanceled() {
+            return Mercury.this.cancelled;
+        }
+
+    }
+
+    /**
+     * Aborts the current {@link ASTParser}, see {@link #memoryThreshold}.
+     */
+    private static final class RecycleParser extends RuntimeException {
+
+        RecycleParser() {
+            super(null, null, false, false);
         }
 
     }
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps state that only depends on the environment (the source files, classpath,
+ * source path and source compatibility) between runs of one or more {@link Mercury}
+ * instances, e.g. the inheritance information of classes and the resolved classpath.
+ * This makes repeated runs over the same source files (e.g. with different mappings)
+ * cheaper.
+ *
+ * <p>The state is discarded if the environment changes between runs. Files are
+ * compared by their size and modification time, {@link #invalidate()} has to be
+ * called if a file may have changed without changing either of them.</p>
+ *
+ * @see Mercury#setSession(MercurySession)
+ * @see Mercury#getSessionContext()
+ */
+public final class MercurySession {
+
+    private final Map<Object, Object> context = new ConcurrentHashMap<>();
+    private String environment;
+
+    /**
+     * Discards all state kept by this session.
+     */
+    public synchronized void invalidate() {
+        this.environment = null;
+        this.context.clear();
+    }
+
+    synchronized Map<Object, Object> open(String environment) {
+        if (!environment.equals(this.environment)) {
+            this.context.clear();
+            this.environment = environment;
+        }
+        return this.context;
+    }
+
+}
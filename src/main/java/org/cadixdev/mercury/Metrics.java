@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The timings and counters of a run.
+ *
+ * <p>Phase and processor times are summed over all threads, so with more than
+ * one thread, they can add up to more than the {@link #getTotalTime() total time}
+ * of the run.</p>
+ */
+public final class Metrics {
+
+    /**
+     * Preparing the environment, e.g. the classpath and the incremental manifest.
+     */
+    public static final String PHASE_PREPARE = "prepare";
+    /**
+     * {@link SourceProcessor#initialize(Mercury) Initializing} the processors.
+     */
+    public static final String PHASE_INITIALIZE = "initialize";
+    /**
+     * Parsing the source files and resolving their bindings.
+     */
+    public static final String PHASE_PARSE = "parse";
+    /**
+     * Running the processors on the parsed source files.
+     */
+    public static final String PHASE_PROCESS = "process";
+    /**
+     * Computing the edits of the AST and import rewrites and applying them.
+     */
+    public static final String PHASE_REWRITE = "rewrite";
+    /**
+     * Writing the output files.
+     */
+    public static final String PHASE_WRITE = "write";
+    /**
+     * {@link SourceProcessor#finish(Mercury) Finishing} the processors.
+     */
+    public static final String PHASE_FINISH = "finish";
+
+    private final Duration totalTime;
+    private final Map<String, Duration> phaseTimes;
+    private final Map<String, Duration> processorTimes;
+    private final long changedFiles;
+    private final long copiedFiles;
+    private final long appliedEdits;
+    private final Map<String, Long> counters;
+
+    Metrics(Duration totalTime, Map<String, Duration> phaseTimes, Map<String, Duration> processorTimes,
+            long changedFiles, long copiedFiles, long appliedEdits, Map<String, Long> counters) {
+        this.totalTime = totalTime;
+        this.phaseTimes = Collections.unmodifiableMap(phaseTimes);
+        this.processorTimes = Collections.unmodifiableMap(processorTimes);
+        this.changedFiles = changedFiles;
+        this.copiedFiles = copiedFiles;
+        this.appliedEdits = appliedEdits;
+        this.counters = Collections.unmodifiableMap(counters);
+    }
+
+    public Duration getTotalTime() {
+        return this.totalTime;
+    }
+
+    /**
+     * Returns the time spent in each phase, see the {@code PHASE_*} constants.
+     *
+     * @return The phase times
+     */
+    public Map<String, Duration> getPhaseTimes() {
+        return this.phaseTimes;
+    }
+
+    /**
+     * Returns the time spent in {@link SourceProcessor#process(SourceContext)}, by
+     * the class name of the processor.
+     *
+     * @return The processor times
+     */
+    public Map<String, Duration> getProcessorTimes() {
+        return this.processorTimes;
+    }
+
+    /**
+     * Returns the number of output files that were written with edits.
+     *
+     * @return The number of changed files
+     */
+    public long getChangedFiles() {
+        return this.changedFiles;
+    }
+
+    /**
+     * Returns the number of output files that were copied unchanged.
+     *
+     * @return The number of copied files
+     */
+    public long getCopiedFiles() {
+        return this.copiedFiles;
+    }
+
+    /**
+     * Returns the number of text edits that were applied to the output files.
+     *
+     * @return The number of applied edits
+     */
+    public long getAppliedEdits() {
+        return this.appliedEdits;
+    }
+
+    /**
+     * Returns the counters recorded by the processors, see
+     * {@link SourceContext#incrementCounter(String)}.
+     *
+     * @return The counters
+     */
+    public Map<String, Long> getCounters() {
+        return this.counters;
+    }
+
+    @Override
+    public String toString() {
+        return "Metrics{" +
+                "totalTime=" + this.totalTime +
+                ", phaseTimes=" + this.phaseTimes +
+                ", processorTimes=" + this.processorTimes +
+                ", changedFiles=" + this.changedFiles +
+                ", copiedFiles=" + this.copiedFiles +
+                ", appliedEdits=" + this.appliedEdits +
+                ", counters=" + this.counters +
+                '}';
+    }
+
+}
@@ -0,0 +1,27 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury;
+
+/**
+ * Receives the {@link Metrics} of each run, e.g. to log them or to forward them to
+ * a monitoring system. See {@link Mercury#getMetricsExporters()}.
+ */
+@FunctionalInterface
+public interface MetricsExporter {
+
+    /**
+     * Called once at the end of each run, also if the run failed.
+     *
+     * @param metrics The metrics of the run
+     */
+    void export(Metrics metrics);
+
+}
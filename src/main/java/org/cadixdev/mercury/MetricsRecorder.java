@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects the {@link Metrics} of a run, from any number of threads.
+ */
+final class MetricsRecorder {
+
+    private final long start = System.nanoTime();
+
+    private final Map<String, LongAdder> phases = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> processors = new ConcurrentHashMap<>();
+    private final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private final LongAdder changedFiles = new LongAdder();
+    private final LongAdder copiedFiles = new LongAdder();
+    private final LongAdder appliedEdits = new LongAdder();
+
+    private static void add(Map<String, LongAdder> map, String key, long value) {
+        map.computeIfAbsent(key, k -> new LongAdder()).add(value);
+    }
+
+    void addPhaseTime(String phase, long nanos) {
+        add(this.phases, phase, nanos);
+    }
+
+    void addProcessorTime(SourceProcessor processor, long nanos) {
+        add(this.processors, processor.getClass().getName(), nanos);
+    }
+
+    void incrementCounter(String name) {
+        add(this.counters, name, 1);
+    }
+
+    void changed(int edits) {
+        this.changedFiles.increment();
+        this.appliedEdits.add(edits);
+    }
+
+    void copied() {
+        this.copiedFiles.increment();
+    }
+
+    Metrics finish() {
+        return new Metrics(
+                Duration.ofNanos(System.nanoTime() - this.start),
+                toDurations(this.phases),
+                toDurations(this.processors),
+                this.changedFiles.sum(),
+                this.copiedFiles.sum(),
+                this.appliedEdits.sum(),
+                toLongs(this.counters)
+        );
+    }
+
+    private static Map<String, Duration> toDurations(Map<String, LongAdder> map) {
+        Map<String, Duration> result = new TreeMap<>();
+        map.forEach((key, value) -> result.put(key, Duration.ofNanos(value.sum())));
+        return result;
+    }
+
+    private static Map<String, Long> toLongs(Map<String, LongAdder> map) {
+        Map<String, Long> result = new TreeMap<>();
+        map.forEach((key, value) -> result.put(key, value.sum()));
+        return result;
+    }
+
+}
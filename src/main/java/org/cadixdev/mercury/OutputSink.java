@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * The destination for the source files written by {@link Mercury}, e.g. a
+ * directory or an archive ({@link org.cadixdev.mercury.util.ZipOutputSink}).
+ *
+ * <p>Files may be written concurrently from multiple threads. Mercury does not
+ * close the sink, that is up to its creator.</p>
+ */
+public interface OutputSink extends Closeable {
+
+    static OutputSink directory(Path dir) {
+        return new DirectoryOutputSink(dir);
+    }
+
+    /**
+     * Writes a file, replacing any previous file with the same path.
+     *
+     * @param path The path relative to the output root, separated by {@code /}
+     * @param content The content of the file
+     * @throws IOException If the file could not be written
+     */
+    void write(String path, byte[] content) throws IOException;
+
+    /**
+     * Writes a file with the content of an existing file, replacing any
+     * previous file with the same path.
+     *
+     * @param path The path relative to the output root, separated by {@code /}
+     * @param file The file to copy
+     * @throws IOException If the file could not be copied
+     */
+    default void copy(String path, Path file) throws IOException {
+        write(path, Files.readAllBytes(file));
+    }
+
+    @Override
+    default void close() throws IOException {
+    }
+
+}
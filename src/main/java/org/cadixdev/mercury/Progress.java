@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * A snapshot of the progress of a run.
+ */
+public final class Progress {
+
+    private final int discoveredFiles;
+    private final boolean discoveryComplete;
+    private final int skippedFiles;
+    private final int parsedFiles;
+    private final int writtenFiles;
+    private final Path currentFile;
+    private final Duration elapsed;
+
+    Progress(int discoveredFiles, boolean discoveryComplete, int skippedFiles, int parsedFiles, int writtenFiles,
+            Path currentFile, Duration elapsed) {
+        this.discoveredFiles = discoveredFiles;
+        this.discoveryComplete = discoveryComplete;
+        this.skippedFiles = skippedFiles;
+        this.parsedFiles = parsedFiles;
+        this.writtenFiles = writtenFiles;
+        this.currentFile = currentFile;
+        this.elapsed = elapsed;
+    }
+
+    /**
+     * Returns the number of source files found so far.
+     *
+     * @return The number of discovered files
+     */
+    public int getDiscoveredFiles() {
+        return this.discoveredFiles;
+    }
+
+    /**
+     * Returns whether all source files were found, otherwise the number of
+     * {@link #getDiscoveredFiles() discovered files} may still grow.
+     *
+     * @return {@code true} if the source directory was walked completely
+     */
+    public boolean isDiscoveryComplete() {
+        return this.discoveryComplete;
+    }
+
+    /**
+     * Returns the number of source files that are not parsed, e.g. because they are
+     * unchanged since the previous incremental run.
+     *
+     * @return The number of skipped files
+     */
+    public int getSkippedFiles() {
+        return this.skippedFiles;
+    }
+
+    /**
+     * Returns the number of source files that were parsed and processed.
+     *
+     * @return The number of parsed files
+     */
+    public int getParsedFiles() {
+        return this.parsedFiles;
+    }
+
+    /**
+     * Returns the number of files written to the outputs, including the skipped
+     * files that were copied unchanged.
+     *
+     * @return The number of written files
+     */
+    public int getWrittenFiles() {
+        return this.writtenFiles;
+    }
+
+    /**
+     * Returns the source file that was processed most recently.
+     *
+     * @return The current file, if any
+     */
+    public Optional<Path> getCurrentFile() {
+        return Optional.ofNullable(this.currentFile);
+    }
+
+    public Duration getElapsed() {
+        return this.elapsed;
+    }
+
+    /**
+     * Estimates the remaining time of the run from the rate at which source files
+     * were parsed so far. The estimate is too low while the discovery is not
+     * complete yet.
+     *
+     * @return The estimated remaining time, if any files were parsed yet
+     */
+    public Optional<Duration> getEstimatedRemaining() {
+        int done = this.parsedFiles + this.skippedFiles;
+        if (done == 0) {
+            return Optional.empty();
+        }
+
+        long remaining = Math.max(this.discoveredFiles - done, 0);
+        return Optional.of(Duration.ofNanos((long) ((double) this.elapsed.toNanos() / done * remaining)));
+    }
+
+    @Override
+    public String toString() {
+        return "Progress{" +
+                "discovered=" + this.discoveredFiles + (this.discoveryComplete ? "" : "+") +
+                ", skipped=" + this.skippedFiles +
+                ", parsed=" + this.parsedFiles +
+                ", written=" + this.writtenFiles +
+                ", elapsed=" + this.elapsed +
+                '}';
+    }
+
+}
@@ -0,0 +1,28 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury;
+
+/**
+ * Receives the progress of a run, see {@link Mercury#setProgressListener(ProgressListener)}.
+ */
+@FunctionalInterface
+public interface ProgressListener {
+
+    /**
+     * Called whenever source files were discovered, parsed or written. With more
+     * than one thread, this may be called concurrently, so implementations should
+     * be cheap and thread-safe.
+     *
+     * @param progress The current progress
+     */
+    void update(Progress progress);
+
+}
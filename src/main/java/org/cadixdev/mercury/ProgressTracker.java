@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts the progress of a run and reports it to a {@link ProgressListener}.
+ */
+final class ProgressTracker {
+
+    private final ProgressListener listener;
+    private final long start = System.nanoTime();
+
+    private final AtomicInteger discovered = new AtomicInteger();
+    private final AtomicInteger skipped = new AtomicInteger();
+    private final AtomicInteger parsed = new AtomicInteger();
+    private final AtomicInteger written = new AtomicInteger();
+    private volatile boolean discoveryComplete;
+    private volatile Path currentFile;
+
+    ProgressTracker(ProgressListener listener) {
+        this.listener = listener;
+    }
+
+    void discovered(int count) {
+        this.discovered.addAndGet(count);
+        update();
+    }
+
+    void discoveryComplete() {
+        this.discoveryComplete = true;
+        update();
+    }
+
+    void skipped(int count) {
+        if (count > 0) {
+            this.skipped.addAndGet(count);
+            update();
+        }
+    }
+
+    void parsed(Path file) {
+        this.currentFile = file;
+        this.parsed.incrementAndGet();
+        update();
+    }
+
+    void written() {
+        this.written.incrementAndGet();
+        update();
+    }
+
+    private void update() {
+        if (this.listener != null) {
+            this.listener.update(new Progress(this.discovered.get(), this.discoveryComplete, this.skipped.get(),
+                    this.parsed.get(), this.written.get(), this.currentFile, Duration.ofNanos(System.nanoTime() - this.start)));
+        }
+    }
+
+}
@@ -21,23 +21,25 @@
 import org.eclipse.text.edits.TextEdit;
 
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
-import java.util.List;
 import java.util.Objects;
 import java.util.Optional;
-import java.util.StringJoiner;
 
 public final class RewriteContext extends SourceContext {
 
+    private final OutputSink sink;
+
     private TextEdit edit;
     private ASTRewrite rewrite;
     private ImportRewrite importRewrite;
 
-    RewriteContext(Mercury mercury, Path sourceFile, CompilationUnit compilationUnit, String primaryType) {
+    RewriteContext(Mercury mercury, OutputSink sink, Path sourceFile, CompilationUnit compilationUnit, String primaryType) {
         super(mercury, sourceFile, compilationUnit, primaryType);
+        this.sink = sink;
+    }
+
+    public OutputSink getSink() {
+        return this.sink;
     }
 
     public void setPackageName(String packageName) {
@@ -81,11 +83,22 @@ private TextEdit rewrite() throws CoreException, IOException {
 
         TextEdit edit = null;
         if (this.rewrite != null) {
-            edit = this.rewrite.rewriteAST(loadDocument(), null);
+            Document document = loadDocument();
+            FlightEvents.Rewrite event = FlightEvents.beginRewrite();
+            edit = this.rewrite.rewriteAST(document, null);
+            if (event != null) {
+                event.commit(this, "ast", edit);
+            }
         }
 
         if (this.importRewrite != null) {
-            edit = combineEdit(edit, this.importRewrite.rewriteImports(loadDocument(), null));
+            Document document = loadDocument();
+            FlightEvents.Rewrite event = FlightEvents.beginRewrite();
+            TextEdit importEdit = this.importRewrite.rewriteImports(document, null);
+            if (event != null) {
+                event.commit(this, "imports", importEdit);
+            }
+            edit = combineEdit(edit, importEdit);
         }
 
         return combineEdit(edit, this.edit);
@@ -106,41 +119,74 @@ private static TextEdit combineEdit(TextEdit before, TextEdit edit) {
         return before;
     }
 
-    @Override
-    void process(List<SourceProcessor> processors) throws Exception {
-        super.process(processors);
-
-        Path outputDir = getMercury().getOutputDir();
-
+    /**
+     * Returns the path of the output file, relative to the output root and separated
+     * by {@code /}. It depends on the {@link #setPackageName(String) package name} and
+     * {@link #setPrimaryType(String) primary type}.
+     *
+     * @return The output path
+     */
+    public String getOutputPath() {
         String path = this.primaryType + JAVA_EXTENSION;
-        if (!this.packageName.isEmpty()) {
-            StringJoiner joiner = new StringJoiner(outputDir.getFileSystem().getSeparator());
-
-            for (String part : this.packageName.split("\\.")) {
-                joiner.add(part);
-            }
-            joiner.add(path);
-
-            path = joiner.toString();
+        if (this.packageName.isEmpty()) {
+            return path;
         }
+        return this.packageName.replace('.', '/') + '/' + path;
+    }
 
-        Path outputFile = outputDir.resolve(path);
-        Files.createDirectories(outputFile.getParent());
+    void write() throws Exception {
+        MetricsRecorder metrics = getMercury().getMetrics();
+        long time = System.nanoTime();
 
         TextEdit edit = rewrite();
-        if (edit == null) {
+        if (edit == null && !isInMemory()) {
             // Copy original source file
-            Files.copy(getSourceFile(), outputFile, StandardCopyOption.REPLACE_EXISTING);
+            FlightEvents.Write event = FlightEvents.beginWrite();
+            this.sink.copy(getOutputPath(), getSourceFile());
+            if (event != null) {
+                event.commitCopy(getOutputPath(), getSourceFile());
+            }
+            if (metrics != null) {
+                metrics.addPhaseTime(Metrics.PHASE_WRITE, System.nanoTime() - time);
+                metrics.copied();
+            }
             return;
         }
 
         // Save the rewritten source file
         Document document = loadDocument();
-        edit.apply(document, TextEdit.NONE);
+        if (edit != null) {
+            edit.apply(document, TextEdit.NONE);
+        }
+        byte[] content = document.get().getBytes(getMercury().getEncoding());
+
+        long rewritten = System.nanoTime();
+        FlightEvents.Write event = FlightEvents.beginWrite();
+        this.sink.write(getOutputPath(), content);
+        if (event != null) {
+            event.commitWrite(getOutputPath(), content);
+        }
+        if (metrics != null) {
+            metrics.addPhaseTime(Metrics.PHASE_REWRITE, rewritten - time);
+            metrics.addPhaseTime(Metrics.PHASE_WRITE, System.nanoTime() - rewritten);
+            if (edit != null) {
+                metrics.changed(countEdits(edit));
+            } else {
+                metrics.copied();
+            }
+        }
+    }
+
+    static int countEdits(TextEdit edit) {
+        if (!edit.hasChildren()) {
+            return edit instanceof MultiTextEdit ? 0 : 1;
+        }
 
-        try (OutputStreamWriter writer = new OutputStreamWriter(Files.newOutputStream(outputFile), getMercury().getEncoding())) {
-            writer.write(document.get());
+        int count = 0;
+        for (TextEdit child : edit.getChildren()) {
+            count += countEdits(child);
         }
+        return count;
     }
 
 }
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * An output of {@link Mercury#rewrite(Path, List)}, together with the processors
+ * that only apply to it (e.g. a {@link org.cadixdev.mercury.remapper.MercuryRemapper}
+ * with its mappings).
+ */
+public final class RewriteTarget {
+
+    private final OutputSink sink;
+    private final List<SourceProcessor> processors;
+
+    public RewriteTarget(OutputSink sink, List<SourceProcessor> processors) {
+        this.sink = Objects.requireNonNull(sink, "sink");
+        this.processors = Collections.unmodifiableList(new ArrayList<>(processors));
+    }
+
+    public RewriteTarget(OutputSink sink, SourceProcessor... processors) {
+        this(sink, Arrays.asList(processors));
+    }
+
+    public RewriteTarget(Path outputDir, List<SourceProcessor> processors) {
+        this(OutputSink.directory(outputDir), processors);
+    }
+
+    public RewriteTarget(Path outputDir, SourceProcessor... processors) {
+        this(outputDir, Arrays.asList(processors));
+    }
+
+    public OutputSink getSink() {
+        return this.sink;
+    }
+
+    public List<SourceProcessor> getProcessors() {
+        return this.processors;
+    }
+
+}
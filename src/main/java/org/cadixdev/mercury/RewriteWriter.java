@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Applies the edits of processed files and writes them to the output directory
+ * on separate threads. At most {@code capacity} files are queued or being written
+ * at a time, further submissions block until one of them is done.
+ */
+final class RewriteWriter {
+
+    private final ExecutorService executor;
+    private final Semaphore permits;
+    private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+    private final Runnable written;
+
+    RewriteWriter(int capacity, int threads, Runnable written) {
+        this.executor = Executors.newFixedThreadPool(threads, r -> {
+            Thread thread = new Thread(r, "mercury-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.permits = new Semaphore(capacity);
+        this.written = written;
+    }
+
+    void submit(RewriteContext context) {
+        checkFailure();
+
+        try {
+            this.permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting to write: " + context.getSourceFile(), e);
+        }
+
+        try {
+            this.executor.execute(() -> {
+                try {
+                    if (this.failure.get() == null) {
+                        context.write();
+                        this.written.run();
+                    }
+                } catch (Exception e) {
+                    this.failure.compareAndSet(null, new RuntimeException("Failed to write: " + context.getSourceFile(), e));
+                } finally {
+                    this.permits.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            this.permits.release();
+            throw e;
+        }
+    }
+
+    void finish() throws InterruptedException {
+        this.executor.shutdown();
+        this.executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        checkFailure();
+    }
+
+    void abort() {
+        this.executor.shutdownNow();
+    }
+
+    private void checkFailure() {
+        RuntimeException failure = this.failure.get();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+}
@@ -18,7 +18,10 @@
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 public class SourceContext {
 
@@ -31,6 +34,8 @@ public class SourceContext {
     String primaryType;
 
     private Document document;
+    private boolean inMemory;
+    private Set<String> dependencies;
 
     SourceContext(Mercury mercury, Path sourceFile, CompilationUnit compilationUnit, String primaryType) {
         this.mercury = mercury;
@@ -70,6 +75,19 @@ public final String getQualifiedPrimaryType() {
         }
     }
 
+    /**
+     * Sets the source code of a source file that is held in memory, instead of
+     * reading it from the {@link #getSourceFile() source file}.
+     */
+    final void setSource(String source) {
+        this.document = new Document(source);
+        this.inMemory = true;
+    }
+
+    final boolean isInMemory() {
+        return this.inMemory;
+    }
+
     public final Document loadDocument() throws IOException {
         if (this.document == null) {
             this.document = new Document(new String(Files.readAllBytes(this.sourceFile), this.mercury.getEncoding()));
@@ -77,9 +95,71 @@ public final Document loadDocument() throws IOException {
         return this.document;
     }
 
+    /**
+     * Returns whether dependencies of this source file are recorded, which is only
+     * the case for {@link Mercury#setIncremental(boolean) incremental} runs.
+     *
+     * @return {@code true} if dependencies are recorded
+     */
+    public final boolean isTrackingDependencies() {
+        return this.dependencies != null;
+    }
+
+    /**
+     * Records that the output for this source file depends on the given key, e.g.
+     * a mapping that was looked up. The next incremental run processes the file
+     * again if the {@link SourceProcessor#getDependencyState(String) state} of any
+     * of its dependencies changed.
+     *
+     * @param key The dependency key
+     */
+    public final void addDependency(String key) {
+        if (this.dependencies != null) {
+            this.dependencies.add(key);
+        }
+    }
+
+    final void trackDependencies() {
+        this.dependencies = new HashSet<>();
+    }
+
+    final Set<String> getDependencies() {
+        return this.dependencies != null ? this.dependencies : Collections.emptySet();
+    }
+
+    /**
+     * Increments a counter of the current run, e.g. the number of mappings that
+     * were looked up. Does nothing if no {@link Mercury#getMetricsExporters()
+     * metrics} are recorded.
+     *
+     * @param name The name of the counter
+     * @see Metrics#getCounters()
+     */
+    public final void incrementCounter(String name) {
+        MetricsRecorder metrics = this.mercury.getMetrics();
+        if (metrics != null) {
+            metrics.incrementCounter(name);
+        }
+    }
+
     void process(List<SourceProcessor> processors) throws Exception {
+        MetricsRecorder metrics = this.mercury.getMetrics();
         for (SourceProcessor processor : processors) {
-            processor.process(this);
+            FlightEvents.Process event = FlightEvents.beginProcess();
+            if (metrics == null) {
+                processor.process(this);
+            } else {
+                long time = System.nanoTime();
+                try {
+                    processor.process(this);
+                } finally {
+                    metrics.addProcessorTime(processor, System.nanoTime() - time);
+                }
+            }
+
+            if (event != null) {
+                event.commit(this, processor);
+            }
         }
     }
 
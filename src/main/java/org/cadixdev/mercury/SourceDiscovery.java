@@ -0,0 +1,252 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury;
+
+import static org.cadixdev.mercury.Mercury.JAVA_EXTENSION;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+
+/**
+ * Walks a source directory and passes the source files to a consumer in batches,
+ * so they can be processed before the walk is complete. Directories are listed
+ * in parallel, the files of a single directory are always kept together.
+ *
+ * <p>Symbolic links are followed. Files are matched against the include and
+ * exclude globs using their path relative to the source directory. Rules in the
+ * form of a package or class name (e.g. {@code com.example.*}) are converted to
+ * the equivalent glob first, see {@link #toGlob(String)}.</p>
+ */
+final class SourceDiscovery {
+
+    private static final Pattern PACKAGE_RULE = Pattern.compile("[\\w$*]+(\\.[\\w$*]+)+");
+
+    private final Path root;
+    private final List<PathMatcher> includes;
+    private final List<PathMatcher> excludes;
+    private final int batchSize;
+
+    private final Set<Object> visited = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger excluded = new AtomicInteger();
+
+    private Consumer<List<Path>> consumer;
+    private List<Path> batch;
+
+    SourceDiscovery(Path root, List<String> includes, List<String> excludes, int batchSize) {
+        this.root = root;
+        this.includes = compile(root, includes);
+        this.excludes = compile(root, excludes);
+        this.batchSize = batchSize;
+    }
+
+    private static List<PathMatcher> compile(Path root, List<String> rules) {
+        List<PathMatcher> matchers = new ArrayList<>(rules.size());
+        for (String rule : rules) {
+            matchers.add(root.getFileSystem().getPathMatcher("glob:" + toGlob(rule)));
+        }
+        return matchers;
+    }
+
+    /**
+     * Converts a package rule to a glob. {@code com.example.*} matches the source
+     * files in the package {@code com.example}, {@code com.example.**} also those
+     * in its subpackages, and {@code com.example.Util} only the source file of
+     * that class. Any other rule (e.g. one that contains a {@code /} or ends with
+     * {@code .java}) is already a glob and returned as-is.
+     *
+     * @param rule The include or exclude rule
+     * @return The glob
+     */
+    static String toGlob(String rule) {
+        if (rule.endsWith(JAVA_EXTENSION) || !PACKAGE_RULE.matcher(rule).matches()) {
+            return rule;
+        }
+
+        String glob = rule.replace('.', '/');
+        return glob.endsWith("*") ? glob : glob + JAVA_EXTENSION;
+    }
+
+    /**
+     * Returns the number of source files that were skipped because of the
+     * include and exclude globs.
+     *
+     * @return The number of excluded source files
+     */
+    int getExcludedCount() {
+        return this.excluded.get();
+    }
+
+    /**
+     * Walks the source directory. The consumer may be called concurrently from
+     * multiple threads. This method only returns once all calls of the consumer
+     * completed, even if one of them (or listing a directory) failed.
+     *
+     * @param parallelism The number of threads used to list directories
+     * @param consumer The consumer for batches of source files
+     * @throws IOException If a directory could not be listed
+     */
+    void walk(int parallelism, Consumer<List<Path>> consumer) throws IOException {
+        this.consumer = consumer;
+        this.batch = new ArrayList<>();
+
+        try {
+            if (parallelism > 1) {
+                ForkJoinPool pool = new ForkJoinPool(parallelism);
+                try {
+                    pool.invoke(new Walker(this.root));
+                } finally {
+                    pool.shutdownNow();
+                }
+            } else {
+                walk(this.root, null);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        List<Path> remaining = this.batch;
+        this.batch = null;
+        if (!remaining.isEmpty()) {
+            consumer.accept(remaining);
+        }
+    }
+
+    private void walk(Path dir, List<Walker> forks) {
+        try {
+            Object key = Files.readAttributes(dir, "basic:fileKey").get("fileKey");
+            if (!this.visited.add(key != null ? key : dir.toRealPath())) {
+                // Symbolic link cycle
+                return;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        List<Path> files = new ArrayList<>();
+        List<Path> dirs = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path path : stream) {
+                if (Files.isDirectory(path)) {
+                    dirs.add(path);
+                } else if (path.getFileName().toString().endsWith(JAVA_EXTENSION) && Files.isRegularFile(path)) {
+                    if (isIncluded(this.root.relativize(path))) {
+                        files.add(path);
+                    } else {
+                        this.excluded.incrementAndGet();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        if (!files.isEmpty()) {
+            files.sort(null);
+            add(files);
+        }
+
+        dirs.sort(null);
+        for (Path child : dirs) {
+            if (forks != null) {
+                Walker walker = new Walker(child);
+                walker.fork();
+                forks.add(walker);
+            } else {
+                walk(child, null);
+            }
+        }
+    }
+
+    private boolean isIncluded(Path relativePath) {
+        for (PathMatcher exclude : this.excludes) {
+            if (exclude.matches(relativePath)) {
+                return false;
+            }
+        }
+
+        if (this.includes.isEmpty()) {
+            return true;
+        }
+        for (PathMatcher include : this.includes) {
+            if (include.matches(relativePath)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void add(List<Path> files) {
+        List<Path> full;
+        synchronized (this) {
+            this.batch.addAll(files);
+            if (this.batch.size() < this.batchSize) {
+                return;
+            }
+
+            full = this.batch;
+            this.batch = new ArrayList<>();
+        }
+
+        this.consumer.accept(full);
+    }
+
+    private final class Walker extends RecursiveAction {
+
+        private final Path dir;
+
+        Walker(Path dir) {
+            this.dir = dir;
+        }
+
+        @Override
+        protected void compute() {
+            List<Walker> forks = new ArrayList<>();
+            RuntimeException failure = null;
+            try {
+                walk(this.dir, forks);
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+
+            // Always join all forks, so none of them is still running after a failure
+            for (Walker fork : forks) {
+                try {
+                    fork.join();
+                } catch (RuntimeException e) {
+                    if (failure == null) {
+                        failure = e;
+                    } else {
+                        failure.addSuppressed(e);
+                    }
+                }
+            }
+
+            if (failure != null) {
+                throw failure;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury;
+
+import org.cadixdev.mercury.util.Fingerprint;
+import org.eclipse.jdt.core.JavaCore;
+import org.eclipse.jdt.core.compiler.batch.BatchCompiler;
+import org.eclipse.jdt.core.dom.AST;
+import org.eclipse.jdt.core.dom.ASTParser;
+import org.eclipse.jdt.core.dom.ASTVisitor;
+import org.eclipse.jdt.core.dom.Block;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.jdt.core.dom.ConstructorInvocation;
+import org.eclipse.jdt.core.dom.MethodDeclaration;
+import org.eclipse.jdt.core.dom.Statement;
+import org.eclipse.jdt.core.dom.SuperConstructorInvocation;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.charset.Charset;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitOption;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Compiles the source path into class files that are cached in a directory, so
+ * the parser can resolve the types of the source path from the class files
+ * instead of parsing their source files again on every run.
+ *
+ * <p>The class files are keyed by the content of all source files on the source
+ * path, the classpath and the compiler settings. Only the signatures of the
+ * source path are needed to resolve its types, so the method bodies are replaced
+ * with {@code throw null;} before compiling. The source path is compiled with
+ * {@code -proceedOnError}, so types with compile errors are still available to
+ * the parser.</p>
+ */
+final class SourcePathCache {
+
+    private static final String VERSION = "2";
+    private static final String JAVA_EXTENSION = ".java";
+
+    private SourcePathCache() {
+    }
+
+    /**
+     * Returns the directory with the class files for the given source path,
+     * compiling it if it is not cached yet.
+     *
+     * @param cacheDir The directory for the class files, can be deleted at any time.
+     *     Outdated class files of the same source path are removed when it is compiled again.
+     * @param sourcePath The source path, only directories are supported
+     * @param classPath The classpath of the source path
+     * @param compliance The Java version of the source files
+     * @param encoding The encoding of the source files
+     * @return The directory with the class files
+     * @throws IOException If the source path could not be read or compiled
+     */
+    static Path get(Path cacheDir, List<Path> sourcePath, List<Path> classPath, String compliance,
+            Charset encoding) throws IOException {
+        // The classes of the same source roots and classpath are outdated and removed
+        Fingerprint paths = new Fingerprint()
+                .add(VERSION)
+                .add(compliance)
+                .add(encoding.name());
+        Fingerprint state = new Fingerprint();
+
+        paths.add(classPath.size());
+        for (Path path : classPath) {
+            paths.add(path.toAbsolutePath().toString());
+            if (Files.isRegularFile(path)) {
+                state.add(Files.size(path)).add(Files.getLastModifiedTime(path).toMillis());
+            }
+        }
+
+        boolean empty = true;
+        paths.add(sourcePath.size());
+        for (Path root : sourcePath) {
+            paths.add(root.toAbsolutePath().toString());
+            for (Path file : getSourceFiles(root)) {
+                state.add(root.relativize(file).toString()).add(Fingerprint.of(Files.readAllBytes(file)));
+                empty = false;
+            }
+        }
+
+        String prefix = paths.finish().substring(0, 16) + '-';
+        Path classes = cacheDir.resolve(prefix + state.finish().substring(0, 16));
+        if (Files.isDirectory(classes)) {
+            return classes;
+        }
+
+        Path temp = cacheDir.resolve(classes.getFileName() + ".tmp");
+        if (Files.exists(temp)) {
+            Mercury.deleteRecursively(temp);
+        }
+        Files.createDirectories(temp);
+
+        if (!empty) {
+            Path stripped = cacheDir.resolve(classes.getFileName() + ".src");
+            try {
+                compile(temp, strip(stripped, sourcePath, compliance, encoding), classPath, compliance, encoding);
+            } finally {
+                Mercury.deleteRecursively(stripped);
+            }
+        }
+
+        try {
+            Files.move(temp, classes, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // Another run may have compiled the same source path in the meantime
+            Mercury.deleteRecursively(temp);
+            if (!Files.isDirectory(classes)) {
+                throw e;
+            }
+            return classes;
+        }
+
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(cacheDir, prefix + "*")) {
+            for (Path other : stream) {
+                // Directories with an extension are still being written by another run
+                if (!other.equals(classes) && other.getFileName().toString().indexOf('.') == -1) {
+                    Mercury.deleteRecursively(other);
+                }
+            }
+        }
+        return classes;
+    }
+
+    /**
+     * Writes a copy of the source path to the given directory, with the bodies of
+     * all methods and constructors replaced with {@code throw null;}. Explicit
+     * constructor invocations are kept, since the constructor would not compile
+     * without them. Field initializers are kept as well, they may be constants.
+     *
+     * @param outputDir The directory for the stripped source files
+     * @param sourcePath The source path
+     * @param compliance The Java version of the source files
+     * @param encoding The encoding of the source files
+     * @return The source roots of the stripped source files
+     * @throws IOException If the source files could not be read or written
+     */
+    private static List<Path> strip(Path outputDir, List<Path> sourcePath, String compliance, Charset encoding)
+            throws IOException {
+        if (Files.exists(outputDir)) {
+            Mercury.deleteRecursively(outputDir);
+        }
+
+        Map<String, String> options = JavaCore.getOptions();
+        JavaCore.setComplianceOptions(compliance, options);
+
+        List<Path> roots = new ArrayList<>(sourcePath.size());
+        for (Path root : sourcePath) {
+            // Source roots may contain the same files, so each gets its own directory
+            Path strippedRoot = outputDir.resolve(Integer.toString(roots.size()));
+            for (Path file : getSourceFiles(root)) {
+                Path output = strippedRoot.resolve(root.relativize(file).toString());
+                Files.createDirectories(output.getParent());
+                Files.write(output, strip(new String(Files.readAllBytes(file), encoding), options).getBytes(encoding));
+            }
+            roots.add(strippedRoot);
+        }
+        return roots;
+    }
+
+    private static String strip(String source, Map<String, String> options) {
+        ASTParser parser = ASTParser.newParser(AST.JLS10);
+        parser.setCompilerOptions(options);
+        parser.setKind(ASTParser.K_COMPILATION_UNIT);
+        parser.setSource(source.toCharArray());
+        CompilationUnit ast = (CompilationUnit) parser.createAST(null);
+
+        StringBuilder result = new StringBuilder(source.length());
+        int[] last = {0};
+        ast.accept(new ASTVisitor() {
+            @Override
+            public boolean visit(MethodDeclaration node) {
+                Block body = node.getBody();
+                if (body == null) {
+                    return false;
+                }
+
+                result.append(source, last[0], body.getStartPosition()).append('{');
+                if (node.isConstructor() && !body.statements().isEmpty()) {
+                    Statement first = (Statement) body.statements().get(0);
+                    if (first instanceof ConstructorInvocation || first instanceof SuperConstructorInvocation) {
+                        result.append(' ').append(source, first.getStartPosition(), first.getStartPosition() + first.getLength());
+                    }
+                }
+                result.append(" throw null; }");
+                last[0] = body.getStartPosition() + body.getLength();
+
+                // Types declared in the body are not needed, the parser never looks them up by name
+                return false;
+            }
+        });
+        return result.append(source, last[0], source.length()).toString();
+    }
+
+    private static void compile(Path outputDir, List<Path> sourcePath, List<Path> classPath, String compliance,
+            Charset encoding) throws IOException {
+
+        List<String> args = new ArrayList<>();
+        args.add("-source");
+        args.add(compliance);
+        args.add("-target");
+        args.add(compliance);
+        args.add("-encoding");
+        args.add(encoding.name());
+        args.add("-proceedOnError");
+        args.add("-proc:none");
+        args.add("-g:none");
+        args.add("-nowarn");
+        args.add("-d");
+        args.add(outputDir.toString());
+        if (!classPath.isEmpty()) {
+            args.add("-classpath");
+            args.add(classPath.stream().map(Path::toString).collect(Collectors.joining(File.pathSeparator)));
+        }
+        for (Path root : sourcePath) {
+            args.add(root.toString());
+        }
+
+        StringWriter errors = new StringWriter();
+        try (PrintWriter out = new PrintWriter(new StringWriter()); PrintWriter err = new PrintWriter(errors)) {
+            // Compile errors are expected (e.g. missing classpath entries), but the
+            // compiler should not fail entirely
+            if (!BatchCompiler.compile(args.toArray(new String[0]), out, err, null) && !hasClassFiles(outputDir)) {
+                Mercury.deleteRecursively(outputDir);
+                throw new IOException("Failed to compile the source path: " + errors);
+            }
+        }
+    }
+
+    private static List<Path> getSourceFiles(Path root) throws IOException {
+        try (Stream<Path> stream = Files.walk(root, FileVisitOption.FOLLOW_LINKS)) {
+            return stream.filter(path -> path.toString().endsWith(JAVA_EXTENSION) && Files.isRegularFile(path))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    private static boolean hasClassFiles(Path dir) throws IOException {
+        try (Stream<Path> stream = Files.walk(dir)) {
+            return stream.anyMatch(path -> path.toString().endsWith(".class"));
+        }
+    }
+
+}
@@ -10,10 +10,38 @@
 
 package org.cadixdev.mercury;
 
+import java.util.Set;
+
 public interface SourceProcessor {
 
     int FLAG_RESOLVE_BINDINGS = 1 << 0;
 
+    /**
+     * The processor does not look at the statements in method bodies. Method
+     * bodies that declare local or anonymous classes are still parsed.
+     */
+    int FLAG_IGNORE_METHOD_BODIES = 1 << 1;
+
+    /**
+     * The processor does not look at Javadoc tags, so Javadoc comments are not
+     * parsed into {@link org.eclipse.jdt.core.dom.TagElement}s.
+     */
+    int FLAG_IGNORE_JAVADOC = 1 << 2;
+
+    /**
+     * The processor does not need recovered bindings for types that are missing
+     * from the classpath, the bindings are {@code null} instead.
+     */
+    int FLAG_IGNORE_BINDINGS_RECOVERY = 1 << 3;
+
+    /**
+     * Returns the flags that configure how source files are parsed for this
+     * processor. {@link #FLAG_RESOLVE_BINDINGS} is used if any processor of a
+     * run requires it, while the {@code FLAG_IGNORE_*} flags only take effect
+     * if all processors of a run set them.
+     *
+     * @return The flags
+     */
     default int getFlags() {
         return 0;
     }
@@ -23,6 +51,48 @@ default void initialize(Mercury mercury) throws Exception {
 
     void process(SourceContext context) throws Exception;
 
+    /**
+     * Returns a fingerprint of everything besides the source files that affects the
+     * output of this processor, e.g. its mappings. Incremental runs use it to decide
+     * if the output of the previous run can be reused.
+     *
+     * <p>State that is only used through dependencies recorded with
+     * {@link SourceContext#addDependency(String)} can be left out, changes to it
+     * are detected through {@link #getDependencyState(String)} instead.</p>
+     *
+     * @return The fingerprint, or {@code null} if incremental runs are not supported
+     * @see org.cadixdev.mercury.util.Fingerprint
+     */
+    default String getFingerprint() {
+        return null;
+    }
+
+    /**
+     * Returns the identifiers that a source file has to contain to be affected by
+     * this processor, e.g. the obfuscated names of its mappings. If every processor
+     * provides them, source files that contain none of the identifiers are copied
+     * without being parsed.
+     *
+     * <p>This is called once per run, before {@link #initialize(Mercury)}.</p>
+     *
+     * @return The identifiers, or {@code null} if every file may be affected
+     */
+    default Set<String> getRelevantNames() {
+        return null;
+    }
+
+    /**
+     * Returns the current state of a dependency recorded using
+     * {@link SourceContext#addDependency(String)}. Source files are processed
+     * again if the state of one of their dependencies changed.
+     *
+     * @param key The dependency key
+     * @return The state, or {@code null} if the key is unknown to this processor
+     */
+    default String getDependencyState(String key) {
+        return null;
+    }
+
     default void finish(Mercury mercury) throws Exception {
     }
 
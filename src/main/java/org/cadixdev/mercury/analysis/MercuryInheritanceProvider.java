@@ -10,7 +10,6 @@
 
 package org.cadixdev.mercury.analysis;
 
-import org.cadixdev.bombe.analysis.CachingInheritanceProvider;
 import org.cadixdev.bombe.analysis.InheritanceProvider;
 import org.cadixdev.bombe.analysis.InheritanceType;
 import org.cadixdev.bombe.type.signature.FieldSignature;
@@ -23,58 +22,133 @@
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 public class MercuryInheritanceProvider implements InheritanceProvider {
 
     private final Mercury mercury;
 
+    /**
+     * The snapshots of the named types, which are kept for the session.
+     */
+    private final Map<String, Optional<ClassInfo>> cache;
+
     public static InheritanceProvider get(Mercury mercury) {
-        return (InheritanceProvider) mercury.getContext().computeIfAbsent(InheritanceProvider.class,
-                i -> new CachingInheritanceProvider(new MercuryInheritanceProvider(mercury)));
+        return (InheritanceProvider) mercury.getContext().computeIfAbsent(InheritanceProvider.class, i -> {
+            // The class information does not depend on the processors, so it is kept for the session
+            @SuppressWarnings("unchecked")
+            Map<String, Optional<ClassInfo>> cache = (Map<String, Optional<ClassInfo>>) mercury.getSessionContext()
+                    .computeIfAbsent(MercuryInheritanceProvider.class, c -> new ConcurrentHashMap<>());
+            return new MercuryInheritanceProvider(mercury, cache);
+        });
     }
 
-    private MercuryInheritanceProvider(Mercury mercury) {
+    private MercuryInheritanceProvider(Mercury mercury, Map<String, Optional<ClassInfo>> cache) {
         this.mercury = mercury;
+        this.cache = cache;
     }
 
     @Override
     public Optional<ClassInfo> provide(String klass) {
-        return this.mercury.createTypeBinding(klass).map(this::provide);
+        return provide(klass, null);
     }
 
     @Override
     public Optional<ClassInfo> provide(String klass, Object context) {
-        if (context instanceof ITypeBinding) {
-            // Avoid looking up binding if it is provided in context
-            return Optional.of(provide((ITypeBinding) context));
-        } else {
-            return provide(klass);
+        Optional<ClassInfo> info = this.cache.get(klass);
+        if (info != null && (info.isPresent() || !(context instanceof ITypeBinding))) {
+            return info;
         }
+
+        // Bindings are only valid for the parser that created them, so they are cached separately
+        @SuppressWarnings("unchecked")
+        Map<String, Optional<ClassInfo>> bindings = (Map<String, Optional<ClassInfo>>) this.mercury.getParserContext()
+                .computeIfAbsent(MercuryInheritanceProvider.class, c -> new HashMap<>());
+        info = bindings.get(klass);
+        if (info == null) {
+            if (context instanceof ITypeBinding) {
+                // Avoid looking up binding if it is provided in context
+                info = Optional.of(provide((ITypeBinding) context));
+            } else {
+                info = this.mercury.createTypeBinding(klass).map(this::provide);
+                if (!info.isPresent()) {
+                    this.cache.putIfAbsent(klass, info);
+                }
+            }
+            bindings.put(klass, info);
+        }
+        return info;
     }
 
     public ClassInfo provide(ITypeBinding binding) {
-        return new BindingClassInfo(binding.getErasure()).lazy();
+        return new BindingClassInfo(this.cache, binding.getErasure());
+    }
+
+    private static String getInternalName(ITypeBinding binding) {
+        return binding.getBinaryName().replace('.', '/');
+    }
+
+    /**
+     * Returns whether the type can be looked up by its name, i.e. it is neither
+     * a local nor an anonymous type, nor declared in one.
+     */
+    private static boolean isNamed(ITypeBinding binding) {
+        for (; binding != null; binding = binding.getDeclaringClass()) {
+            if (binding.isLocal() || binding.isAnonymous()) {
+                return false;
+            }
+        }
+        return true;
     }
 
+    /**
+     * The inheritance information of a type binding. The members are only
+     * converted once they are needed, which is usually only the case for the
+     * mapped parents of a class.
+     *
+     * <p>Once converted, a {@link Snapshot} of the class is kept for the session,
+     * since the binding itself may only be accessed from the parser (and thread)
+     * that created it.</p>
+     */
     private static class BindingClassInfo extends ClassInfo.Abstract {
 
+        private final Map<String, Optional<ClassInfo>> cache;
         private final ITypeBinding binding;
+        private final String name;
+        private final String superName;
+        private final List<String> interfaces;
+        private Snapshot snapshot;
 
-        private BindingClassInfo(ITypeBinding binding) {
+        private BindingClassInfo(Map<String, Optional<ClassInfo>> cache, ITypeBinding binding) {
+            this.cache = cache;
             this.binding = binding;
+            this.name = getInternalName(binding);
+
+            ITypeBinding superClass = binding.getSuperclass();
+            this.superName = superClass != null ? getInternalName(superClass) : "";
+            this.interfaces = Collections.unmodifiableList(Arrays.stream(binding.getInterfaces())
+                    .map(MercuryInheritanceProvider::getInternalName)
+                    .collect(Collectors.toList()));
         }
 
-        private static String getInternalName(ITypeBinding binding) {
-            return binding.getBinaryName().replace('.', '/');
+        private Snapshot getSnapshot() {
+            if (this.snapshot == null) {
+                this.snapshot = new Snapshot(this, this.binding);
+                if (isNamed(this.binding)) {
+                    this.cache.putIfAbsent(this.name, Optional.of(this.snapshot));
+                }
+            }
+            return this.snapshot;
         }
 
         @Override
         public String getName() {
-            return getInternalName(this.binding);
+            return this.name;
         }
 
         @Override
@@ -84,40 +158,35 @@ public boolean isInterface() {
 
         @Override
         public String getSuperName() {
-            ITypeBinding superClass = this.binding.getSuperclass();
-            return superClass != null ? getInternalName(superClass) : "";
+            return this.superName;
         }
 
         @Override
         public List<String> getInterfaces() {
-            return Collections.unmodifiableList(Arrays.stream(this.binding.getInterfaces())
-                    .map(BindingClassInfo::getInternalName)
-                    .collect(Collectors.toList()));
+            return this.interfaces;
         }
 
         @Override
         public Map<FieldSignature, InheritanceType> getFields() {
-            return Collections.unmodifiableMap(Arrays.stream(this.binding.getDeclaredFields())
-                    .collect(Collectors.toMap(BombeBindings::convertSignature, f -> InheritanceType.fromModifiers(f.getModifiers()))));
+            return getSnapshot().fields;
         }
 
         @Override
         public Map<String, InheritanceType> getFieldsByName() {
-            return Collections.unmodifiableMap(Arrays.stream(this.binding.getDeclaredFields())
-                    .collect(Collectors.toMap(IVariableBinding::getName, f -> InheritanceType.fromModifiers(f.getModifiers()))));
+            return getSnapshot().fieldsByName;
         }
 
         @Override
         public Map<MethodSignature, InheritanceType> getMethods() {
-            return Collections.unmodifiableMap(Arrays.stream(this.binding.getDeclaredMethods())
-                    .collect(Collectors.toMap(BombeBindings::convertSignature, m -> InheritanceType.fromModifiers(m.getModifiers()))));
+            return getSnapshot().methods;
         }
 
-        private void provideParent(InheritanceProvider provider, ITypeBinding parent, Collection<ClassInfo> parents) {
+        private static void provideParent(InheritanceProvider provider, ITypeBinding parent, Collection<ClassInfo> parents) {
             if (parent == null) {
                 return;
             }
 
+            parent = parent.getErasure();
             ClassInfo parentInfo = provider.provide(getInternalName(parent), parent).orElse(null);
             if (parentInfo != null) {
                 parentInfo.provideParents(provider, parents);
@@ -127,6 +196,7 @@ private void provideParent(InheritanceProvider provider, ITypeBinding parent, Co
 
         @Override
         public void provideParents(InheritanceProvider provider, Collection<ClassInfo> parents) {
+            // Pass the bindings as context, so local and anonymous parents can be resolved as well
             provideParent(provider, this.binding.getSuperclass(), parents);
             for (ITypeBinding iface : this.binding.getInterfaces()) {
                 provideParent(provider, iface, parents);
@@ -135,4 +205,88 @@ public void provideParents(InheritanceProvider provider, Collection<ClassInfo> p
 
     }
 
+    /**
+     * A snapshot of the inheritance information of a type binding, which does
+     * not hold on to the binding.
+     */
+    private static class Snapshot extends ClassInfo.Abstract {
+
+        private final String name;
+        private final boolean isInterface;
+        private final String superName;
+        private final List<String> interfaces;
+        private final Map<FieldSignature, InheritanceType> fields;
+        private final Map<String, InheritanceType> fieldsByName;
+        private final Map<MethodSignature, InheritanceType> methods;
+
+        private Snapshot(ClassInfo info, ITypeBinding binding) {
+            this.name = info.getName();
+            this.isInterface = info.isInterface();
+            this.superName = info.getSuperName();
+            this.interfaces = info.getInterfaces();
+            this.fields = Collections.unmodifiableMap(Arrays.stream(binding.getDeclaredFields())
+                    .collect(Collectors.toMap(BombeBindings::convertSignature, f -> InheritanceType.fromModifiers(f.getModifiers()))));
+            this.fieldsByName = Collections.unmodifiableMap(Arrays.stream(binding.getDeclaredFields())
+                    .collect(Collectors.toMap(IVariableBinding::getName, f -> InheritanceType.fromModifiers(f.getModifiers()))));
+            this.methods = Collections.unmodifiableMap(Arrays.stream(binding.getDeclaredMethods())
+                    .collect(Collectors.toMap(BombeBindings::convertSignature, m -> InheritanceType.fromModifiers(m.getModifiers()))));
+        }
+
+        @Override
+        public String getName() {
+            return this.name;
+        }
+
+        @Override
+        public boolean isInterface() {
+            return this.isInterface;
+        }
+
+        @Override
+        public String getSuperName() {
+            return this.superName;
+        }
+
+        @Override
+        public List<String> getInterfaces() {
+            return this.interfaces;
+        }
+
+        @Override
+        public Map<FieldSignature, InheritanceType> getFields() {
+            return this.fields;
+        }
+
+        @Override
+        public Map<String, InheritanceType> getFieldsByName() {
+            return this.fieldsByName;
+        }
+
+        @Override
+        public Map<MethodSignature, InheritanceType> getMethods() {
+            return this.methods;
+        }
+
+        private static void provideParent(InheritanceProvider provider, String parent, Collection<ClassInfo> parents) {
+            if (parent.isEmpty()) {
+                return;
+            }
+
+            ClassInfo parentInfo = provider.provide(parent).orElse(null);
+            if (parentInfo != null) {
+                parentInfo.provideParents(provider, parents);
+                parents.add(parentInfo);
+            }
+        }
+
+        @Override
+        public void provideParents(InheritanceProvider provider, Collection<ClassInfo> parents) {
+            provideParent(provider, this.superName, parents);
+            for (String iface : this.interfaces) {
+                provideParent(provider, iface, parents);
+            }
+        }
+
+    }
+
 }
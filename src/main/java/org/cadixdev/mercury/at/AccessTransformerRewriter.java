@@ -18,9 +18,11 @@
 import org.cadixdev.at.ModifierChange;
 import org.cadixdev.bombe.analysis.InheritanceProvider;
 import org.cadixdev.bombe.type.signature.MethodSignature;
+import org.cadixdev.mercury.Mercury;
 import org.cadixdev.mercury.RewriteContext;
 import org.cadixdev.mercury.SourceRewriter;
 import org.cadixdev.mercury.analysis.MercuryInheritanceProvider;
+import org.cadixdev.mercury.util.Fingerprint;
 import org.eclipse.jdt.core.dom.ASTVisitor;
 import org.eclipse.jdt.core.dom.AbstractTypeDeclaration;
 import org.eclipse.jdt.core.dom.AnnotationTypeDeclaration;
@@ -38,6 +40,8 @@
 import org.eclipse.jdt.core.dom.rewrite.ListRewrite;
 
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 public final class AccessTransformerRewriter implements SourceRewriter {
 
@@ -46,19 +50,79 @@ public static SourceRewriter create(AccessTransformSet ats) {
     }
 
     private final AccessTransformSet ats;
+    private final String fingerprint;
+
+    /**
+     * The access transformers completed with the inherited method transforms
+     * during the current run, shared by the visitors of all threads.
+     */
+    private AccessTransformSet completed;
 
     private AccessTransformerRewriter(AccessTransformSet ats) {
-        this.ats = ats;
+        // Keep a snapshot, so changes to the given set neither affect a run that
+        // is in progress nor the fingerprint
+        this.ats = AccessTransformSet.create();
+        this.ats.merge(ats);
+        this.fingerprint = computeFingerprint(this.ats);
     }
 
     @Override
     public int getFlags() {
-        return FLAG_RESOLVE_BINDINGS;
+        // Only declarations are transformed, and only for classes that resolve on the classpath
+        return FLAG_RESOLVE_BINDINGS | FLAG_IGNORE_METHOD_BODIES | FLAG_IGNORE_JAVADOC | FLAG_IGNORE_BINDINGS_RECOVERY;
+    }
+
+    @Override
+    public String getFingerprint() {
+        return this.fingerprint;
+    }
+
+    private static String computeFingerprint(AccessTransformSet ats) {
+        Fingerprint fingerprint = new Fingerprint();
+
+        Map<String, AccessTransformSet.Class> classes = new TreeMap<>(ats.getClasses());
+        fingerprint.add(classes.size());
+        for (Map.Entry<String, AccessTransformSet.Class> entry : classes.entrySet()) {
+            AccessTransformSet.Class classSet = entry.getValue();
+            fingerprint.add(entry.getKey());
+            add(fingerprint, classSet.get());
+            add(fingerprint, classSet.allFields());
+            add(fingerprint, classSet.allMethods());
+
+            Map<String, AccessTransform> fields = new TreeMap<>(classSet.getFields());
+            fingerprint.add(fields.size());
+            for (Map.Entry<String, AccessTransform> field : fields.entrySet()) {
+                fingerprint.add(field.getKey());
+                add(fingerprint, field.getValue());
+            }
+
+            Map<String, AccessTransform> methods = new TreeMap<>();
+            classSet.getMethods().forEach((signature, transform) ->
+                    methods.put(signature.getName() + signature.getDescriptor(), transform));
+            fingerprint.add(methods.size());
+            for (Map.Entry<String, AccessTransform> method : methods.entrySet()) {
+                fingerprint.add(method.getKey());
+                add(fingerprint, method.getValue());
+            }
+        }
+
+        return fingerprint.finish();
+    }
+
+    private static void add(Fingerprint fingerprint, AccessTransform transform) {
+        fingerprint.add(transform.getAccess().name()).add(transform.getFinal().name());
+    }
+
+    @Override
+    public void initialize(Mercury mercury) {
+        // Complete a copy of the snapshot, the class hierarchy may have changed since the last run
+        this.completed = AccessTransformSet.create();
+        this.completed.merge(this.ats);
     }
 
     @Override
     public void rewrite(RewriteContext context) {
-        context.getCompilationUnit().accept(new Visitor(context, this.ats));
+        context.getCompilationUnit().accept(new Visitor(context, this.completed));
     }
 
     private static class Visitor extends ASTVisitor {
@@ -150,7 +214,9 @@ private AccessTransformSet.Class findClass(ITypeBinding declaringClass) {
                 return null;
             }
 
-            return this.ats.getClass(declaringClass.getBinaryName()).orElse(null);
+            synchronized (this.ats) {
+                return this.ats.getClass(declaringClass.getBinaryName()).orElse(null);
+            }
         }
 
         private void visitDeclaration(AbstractTypeDeclaration declaration) {
@@ -225,11 +291,17 @@ public boolean visit(MethodDeclaration node) {
                 return true;
             }
 
-            AccessTransformSet.Class classSet = this.ats.getOrCreateClass(declaringClass.getBinaryName());
-            classSet.complete(this.inheritanceProvider, declaringClass);
-
             MethodSignature signature = convertSignature(binding);
-            transform(node, classSet.getMethod(signature));
+            AccessTransform transform;
+
+            // Completing a class also completes (and creates) the classes of its parents
+            synchronized (this.ats) {
+                AccessTransformSet.Class classSet = this.ats.getOrCreateClass(declaringClass.getBinaryName());
+                classSet.complete(this.inheritanceProvider, declaringClass);
+                transform = classSet.getMethod(signature);
+            }
+
+            transform(node, transform);
 
             return true;
         }
@@ -82,9 +82,13 @@ private Visitor(SourceContext context, AccessTransformSet ats, MappingSet mappin
             this.mappings = mappings;
             this.inheritanceProvider = MercuryInheritanceProvider.get(context.getMercury());
 
-            this.newPackage = this.mappings.getTopLevelClassMapping(context.getQualifiedPrimaryType())
-                    .map(primary -> primary.getDeobfuscatedPackage().replace('/', '.'))
-                    .orElse(context.getPackageName());
+            // Source files are processed in parallel, so the shared mappings and
+            // access transformers are only used while holding their lock
+            synchronized (this.mappings) {
+                this.newPackage = this.mappings.getTopLevelClassMapping(context.getQualifiedPrimaryType())
+                        .map(primary -> primary.getDeobfuscatedPackage().replace('/', '.'))
+                        .orElse(context.getPackageName());
+            }
         }
 
         private static ITypeBinding resolveBinding(ASTNode node) {
@@ -132,13 +136,15 @@ private boolean needsTransform(SimpleName node, IBinding binding, ITypeBinding d
                 throw new IllegalStateException("Binary name for binding " + declaringClass.getQualifiedName() + " is null. Did you forget to add a library to the classpath?");
             }
 
-            ClassMapping<?, ?> mapping = this.mappings.getClassMapping(binaryName).orElse(null);
-
-            String packageName;
-            if (mapping != null) {
-                mapping.complete(this.inheritanceProvider, declaringClass);
-                packageName = mapping.getDeobfuscatedPackage().replace('/', '.');
-            } else {
+            String packageName = null;
+            synchronized (this.mappings) {
+                ClassMapping<?, ?> mapping = this.mappings.getClassMapping(binaryName).orElse(null);
+                if (mapping != null) {
+                    mapping.complete(this.inheritanceProvider, declaringClass);
+                    packageName = mapping.getDeobfuscatedPackage().replace('/', '.');
+                }
+            }
+            if (packageName == null) {
                 packageName = declaringClass.getPackage().getName();
             }
 
@@ -152,7 +158,9 @@ private void analyze(SimpleName node, ITypeBinding binding) {
                 return;
             }
             if (needsTransform(node, binding, binding)) {
-                this.ats.getOrCreateClass(binding.getBinaryName()).merge(TRANSFORM);
+                synchronized (this.ats) {
+                    this.ats.getOrCreateClass(binding.getBinaryName()).merge(TRANSFORM);
+                }
             }
         }
 
@@ -160,7 +168,9 @@ private void analyze(SimpleName node, IMethodBinding binding) {
             ITypeBinding declaringClass = binding.getDeclaringClass();
             if (needsTransform(node, binding, declaringClass)) {
                 MethodSignature signature = convertSignature(binding);
-                this.ats.getOrCreateClass(declaringClass.getBinaryName()).mergeMethod(signature, TRANSFORM);
+                synchronized (this.ats) {
+                    this.ats.getOrCreateClass(declaringClass.getBinaryName()).mergeMethod(signature, TRANSFORM);
+                }
             }
         }
 
@@ -171,7 +181,9 @@ private void analyze(SimpleName node, IVariableBinding binding) {
 
             ITypeBinding declaringClass = binding.getDeclaringClass();
             if (needsTransform(node, binding, declaringClass)) {
-                this.ats.getOrCreateClass(declaringClass.getBinaryName()).mergeField(binding.getName(), TRANSFORM);
+                synchronized (this.ats) {
+                    this.ats.getOrCreateClass(declaringClass.getBinaryName()).mergeField(binding.getName(), TRANSFORM);
+                }
             }
         }
 
@@ -50,6 +50,12 @@ public int getFlags() {
         return FLAG_RESOLVE_BINDINGS;
     }
 
+    @Override
+    public String getFingerprint() {
+        // Not configurable
+        return "";
+    }
+
     @Override
     public void rewrite(RewriteContext context) {
         context.getCompilationUnit().accept(new Visitor(context));
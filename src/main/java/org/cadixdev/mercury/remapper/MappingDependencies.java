@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury.remapper;
+
+import org.cadixdev.bombe.type.signature.MethodSignature;
+import org.cadixdev.lorenz.MappingSet;
+import org.cadixdev.lorenz.model.ClassMapping;
+import org.cadixdev.lorenz.model.FieldMapping;
+import org.cadixdev.lorenz.model.Mapping;
+import org.cadixdev.lorenz.model.MethodMapping;
+import org.cadixdev.lorenz.model.MethodParameterMapping;
+import org.cadixdev.mercury.util.Fingerprint;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.StringJoiner;
+import java.util.function.Function;
+
+/**
+ * Dependencies of source files on entries of a {@link MappingSet}, used to
+ * find the files affected by changes to the mappings in incremental runs.
+ *
+ * <p>The keys are prefixed by their kind:</p>
+ * <ul>
+ *     <li>{@code C:} - the full deobfuscated name of a class</li>
+ *     <li>{@code M:} - a method mapping, including its parameters</li>
+ *     <li>{@code F:} - the field mappings with a name</li>
+ *     <li>{@code K:} - a class mapping including all of its members</li>
+ * </ul>
+ */
+final class MappingDependencies {
+
+    private static final String UNMAPPED_CLASS = "-";
+    private static final String UNMAPPED_MEMBER = "+";
+
+    static String classKey(String className) {
+        return "C:" + className.replace('.', '/');
+    }
+
+    static String methodKey(String className, MethodSignature signature) {
+        return "M:" + className.replace('.', '/') + '#' + signature.getName() + signature.getDescriptor();
+    }
+
+    static String fieldKey(String className, String name) {
+        return "F:" + className.replace('.', '/') + '#' + name;
+    }
+
+    static String classTreeKey(String className) {
+        return "K:" + className.replace('.', '/');
+    }
+
+    static String getState(MappingSet mappings, String key) {
+        if (key.length() < 2 || key.charAt(1) != ':') {
+            return null;
+        }
+
+        String value = key.substring(2);
+        switch (key.charAt(0)) {
+            case 'C':
+                return getFullDeobfuscatedName(mappings, value);
+            case 'M': {
+                int index = value.indexOf('#');
+                ClassMapping<?, ?> mapping = mappings.getClassMapping(value.substring(0, index)).orElse(null);
+                if (mapping == null) {
+                    return UNMAPPED_CLASS;
+                }
+
+                int descriptor = value.indexOf('(', index);
+                return mapping.getMethodMapping(value.substring(index + 1, descriptor), value.substring(descriptor))
+                        .map(MappingDependencies::getMethodState)
+                        .orElse(UNMAPPED_MEMBER);
+            }
+            case 'F': {
+                int index = value.indexOf('#');
+                ClassMapping<?, ?> mapping = mappings.getClassMapping(value.substring(0, index)).orElse(null);
+                if (mapping == null) {
+                    return UNMAPPED_CLASS;
+                }
+
+                return mapping.getFieldMapping(value.substring(index + 1))
+                        .map(field -> '=' + field.getDeobfuscatedName())
+                        .orElse(UNMAPPED_MEMBER);
+            }
+            case 'K': {
+                ClassMapping<?, ?> mapping = mappings.getClassMapping(value).orElse(null);
+                if (mapping == null) {
+                    return UNMAPPED_CLASS;
+                }
+
+                Fingerprint fingerprint = new Fingerprint();
+                addClasses(fingerprint, Collections.singletonList(mapping));
+                return fingerprint.finish();
+            }
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Returns the full deobfuscated name of a class, as it would be computed by
+     * {@link MappingSet#computeClassMapping(String)}, without creating any mappings.
+     */
+    private static String getFullDeobfuscatedName(MappingSet mappings, String className) {
+        ClassMapping<?, ?> mapping = mappings.getClassMapping(className).orElse(null);
+        if (mapping != null) {
+            return mapping.getFullDeobfuscatedName();
+        }
+
+        int index = className.lastIndexOf('$');
+        if (index == -1) {
+            return className;
+        }
+        return getFullDeobfuscatedName(mappings, className.substring(0, index)) + className.substring(index);
+    }
+
+    private static String getMethodState(MethodMapping mapping) {
+        StringJoiner parameters = new StringJoiner(",", "(", ")");
+        for (MethodParameterMapping parameter : sorted(mapping.getParameterMappings(), MethodParameterMapping::getIndex)) {
+            parameters.add(parameter.getIndex() + "=" + parameter.getDeobfuscatedName());
+        }
+        return '=' + mapping.getDeobfuscatedName() + parameters;
+    }
+
+    private static void addClasses(Fingerprint fingerprint, Collection<? extends ClassMapping<?, ?>> classes) {
+        fingerprint.add(classes.size());
+        for (ClassMapping<?, ?> mapping : sorted(classes, Mapping::getObfuscatedName)) {
+            fingerprint.add(mapping.getObfuscatedName()).add(mapping.getDeobfuscatedName());
+
+            Collection<FieldMapping> fields = mapping.getFieldMappings();
+            fingerprint.add(fields.size());
+            for (FieldMapping field : sorted(fields, f -> f.getObfuscatedName() + getType(f))) {
+                fingerprint.add(field.getObfuscatedName())
+                        .add(getType(field))
+                        .add(field.getDeobfuscatedName());
+            }
+
+            Collection<MethodMapping> methods = mapping.getMethodMappings();
+            fingerprint.add(methods.size());
+            for (MethodMapping method : sorted(methods, m -> m.getObfuscatedName() + m.getObfuscatedDescriptor())) {
+                fingerprint.add(method.getObfuscatedName())
+                        .add(method.getObfuscatedDescriptor())
+                        .add(getMethodState(method));
+            }
+
+            addClasses(fingerprint, mapping.getInnerClassMappings());
+        }
+    }
+
+    private static String getType(FieldMapping mapping) {
+        return mapping.getSignature().getType().map(Object::toString).orElse("");
+    }
+
+    private static <T, K extends Comparable<? super K>> List<T> sorted(Collection<? extends T> values, Function<? super T, K> key) {
+        List<T> result = new ArrayList<>(values);
+        result.sort(Comparator.comparing(key));
+        return result;
+    }
+
+    private MappingDependencies() {
+    }
+
+}
@@ -0,0 +1,477 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury.remapper;
+
+import org.cadixdev.bombe.analysis.InheritanceProvider;
+import org.cadixdev.bombe.analysis.InheritanceProvider.ClassInfo;
+import org.cadixdev.bombe.analysis.InheritanceType;
+import org.cadixdev.bombe.type.FieldType;
+import org.cadixdev.bombe.type.signature.FieldSignature;
+import org.cadixdev.bombe.type.signature.MethodSignature;
+import org.cadixdev.lorenz.MappingSet;
+import org.cadixdev.lorenz.model.ClassMapping;
+import org.cadixdev.lorenz.model.FieldMapping;
+import org.cadixdev.lorenz.model.InnerClassMapping;
+import org.cadixdev.lorenz.model.MethodMapping;
+import org.cadixdev.lorenz.model.TopLevelClassMapping;
+import org.cadixdev.mercury.Mercury;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * An immutable index of the class, field and method mappings of a
+ * {@link MappingSet}, compiled once per run. Unlike the mapping set, looking up
+ * a mapping never creates one, so the index can be read by any number of threads
+ * without locking.
+ *
+ * <p>The mappings are stored in open addressing hash tables, keyed by the binary
+ * name of the class (as returned by {@code ITypeBinding#getBinaryName()}) and by
+ * the name and the {@link org.cadixdev.bombe.type.MethodDescriptor} or
+ * {@link FieldType} of the members.</p>
+ *
+ * <p>Inherited method mappings are resolved with the
+ * {@link InheritanceProvider} of the run, instead of completing the class
+ * mappings, so the mapping set is never modified by a run.</p>
+ */
+final class MappingIndex {
+
+    private final Table<Entry> classes;
+
+    /**
+     * The new names that were already looked up in this index.
+     */
+    final RenameMemo memo = new RenameMemo();
+
+    private MappingIndex(Table<Entry> classes) {
+        this.classes = classes;
+    }
+
+    /**
+     * Returns the index of the given mapping set for the current run, compiling
+     * it on first use. Changes to the mappings during a run are not visible in the
+     * index.
+     *
+     * @param mercury The Mercury instance
+     * @param mappings The mappings
+     * @return The mapping index
+     */
+    static MappingIndex get(Mercury mercury, MappingSet mappings) {
+        return (MappingIndex) mercury.getContext().computeIfAbsent(new Key(mappings), k -> compile(mappings));
+    }
+
+    static MappingIndex compile(MappingSet mappings) {
+        TableBuilder<Entry> classes = new TableBuilder<>();
+        for (TopLevelClassMapping mapping : mappings.getTopLevelClassMappings()) {
+            addClass(classes, mapping);
+        }
+        return new MappingIndex(classes.build());
+    }
+
+    private static void addClass(TableBuilder<Entry> classes, ClassMapping<?, ?> mapping) {
+        TableBuilder<MethodMapping> methods = new TableBuilder<>();
+        for (MethodMapping method : mapping.getMethodMappings()) {
+            methods.put(method.getObfuscatedName(), method.getDescriptor(), method);
+        }
+
+        TableBuilder<FieldMapping> fields = new TableBuilder<>();
+        for (FieldMapping field : mapping.getFieldMappings()) {
+            fields.put(field.getObfuscatedName(), field.getType().orElse(null), field);
+        }
+
+        // The mappings Lorenz falls back to for a name, regardless of the type
+        TableBuilder<FieldMapping> fieldsByName = new TableBuilder<>();
+        for (Map.Entry<String, FieldMapping> field : mapping.getFieldsByName().entrySet()) {
+            fieldsByName.put(field.getKey(), null, field.getValue());
+        }
+
+        String anonymousParent = null;
+        String[] siblings = null;
+        ClassMapping<?, ?> parent = getAnonymousClassParent(mapping);
+        if (parent != null) {
+            anonymousParent = parent.getFullObfuscatedName();
+            siblings = getAnonymousClassSiblings(parent, mapping);
+        }
+
+        classes.put(getBinaryName(mapping), null, new Entry(mapping, methods.build(), fields.build(), fieldsByName.build(),
+                anonymousParent, siblings));
+        for (InnerClassMapping inner : mapping.getInnerClassMappings()) {
+            addClass(classes, inner);
+        }
+    }
+
+    private static String getBinaryName(ClassMapping<?, ?> mapping) {
+        return mapping.getFullObfuscatedName().replace('/', '.');
+    }
+
+    /**
+     * Returns the outer class of an anonymous class that was renamed, so its
+     * members may be mapped in a sibling anonymous class instead.
+     */
+    private static ClassMapping<?, ?> getAnonymousClassParent(ClassMapping<?, ?> mapping) {
+        // If neither name is different then there are no siblings to look at
+        if (Objects.equals(mapping.getObfuscatedName(), mapping.getDeobfuscatedName())) {
+            return null;
+        }
+        // Anonymous classes must be inner classes
+        if (!(mapping instanceof InnerClassMapping)) {
+            return null;
+        }
+        // Verify this is inner class is anonymous
+        if (!mapping.getObfuscatedName().chars().allMatch(Character::isDigit)) {
+            return null;
+        }
+        return ((InnerClassMapping) mapping).getParent();
+    }
+
+    private static String[] getAnonymousClassSiblings(ClassMapping<?, ?> parent, ClassMapping<?, ?> mapping) {
+        List<String> siblings = new ArrayList<>(2);
+
+        // A sibling anonymous class whose obfuscated name is our deobfuscated name
+        parent.getInnerClassMapping(mapping.getDeobfuscatedName()).ifPresent(other -> siblings.add(getBinaryName(other)));
+
+        // A sibling anonymous class whose deobfuscated name is our obfuscated name
+        for (InnerClassMapping inner : parent.getInnerClassMappings()) {
+            if (Objects.equals(mapping.getObfuscatedName(), inner.getDeobfuscatedName())) {
+                siblings.add(getBinaryName(inner));
+                break;
+            }
+        }
+        return siblings.toArray(new String[0]);
+    }
+
+    /**
+     * Returns the mapping of a class, if it is mapped explicitly.
+     *
+     * @param binaryName The binary name of the class
+     * @return The class mapping, or {@code null}
+     */
+    ClassMapping<?, ?> getClassMapping(String binaryName) {
+        Entry entry = this.classes.get(binaryName, null);
+        return entry != null ? entry.mapping : null;
+    }
+
+    TopLevelClassMapping getTopLevelClassMapping(String binaryName) {
+        ClassMapping<?, ?> mapping = getClassMapping(binaryName);
+        return mapping instanceof TopLevelClassMapping ? (TopLevelClassMapping) mapping : null;
+    }
+
+    /**
+     * Returns the full deobfuscated name of a class, as it would be computed by
+     * {@link MappingSet#computeClassMapping(String)}. Inner classes without a
+     * mapping keep their name, but are moved with their outer class.
+     *
+     * @param binaryName The binary name of the class
+     * @return The full deobfuscated name, or {@code null} if neither the class
+     *     nor one of its outer classes are mapped
+     */
+    String getFullDeobfuscatedName(String binaryName) {
+        Entry entry = this.classes.get(binaryName, null);
+        if (entry != null) {
+            return entry.mapping.getFullDeobfuscatedName();
+        }
+
+        int index = binaryName.lastIndexOf('$');
+        if (index == -1) {
+            return null;
+        }
+
+        String outerName = getFullDeobfuscatedName(binaryName.substring(0, index));
+        return outerName != null ? outerName + binaryName.substring(index) : null;
+    }
+
+    /**
+     * Returns the method mapping with the given signature, if it is declared in
+     * the mapping of the class. Inherited mappings are not included, see
+     * {@link #getInheritedMethodMapping(InheritanceProvider, ClassInfo, MethodSignature, Collection)}.
+     *
+     * @param binaryName The binary name of the class
+     * @param signature The obfuscated signature of the method
+     * @return The method mapping, or {@code null}
+     */
+    MethodMapping getMethodMapping(String binaryName, MethodSignature signature) {
+        Entry entry = this.classes.get(binaryName, null);
+        return entry != null ? entry.methods.get(signature.getName(), signature.getDescriptor()) : null;
+    }
+
+    /**
+     * Returns the method mapping with the given signature that the class inherits
+     * from one of its parents, like
+     * {@link ClassMapping#complete(InheritanceProvider, Object)} would add
+     * it. All parents are searched, from the nearest to the farthest, and the
+     * first mapping that can be inherited is used.
+     *
+     * @param provider The inheritance provider
+     * @param info The class
+     * @param signature The obfuscated signature of the method
+     * @param visited The collection to add the names of the searched parents to,
+     *     or {@code null}
+     * @return The method mapping, or {@code null}
+     */
+    MethodMapping getInheritedMethodMapping(InheritanceProvider provider, ClassInfo info, MethodSignature signature,
+            Collection<String> visited) {
+        List<ClassInfo> parents = new ArrayList<>();
+        info.provideParents(provider, parents);
+
+        // The parents are provided from the farthest to the nearest, and the nearest
+        // one wins when the mappings are completed, as it is added last
+        for (int i = parents.size() - 1; i >= 0; i--) {
+            ClassInfo parent = parents.get(i);
+            if (visited != null) {
+                visited.add(parent.getName());
+            }
+
+            MethodMapping mapping = getMethodMapping(parent.getName().replace('/', '.'), signature);
+            if (mapping != null && canInherit(parent, info, signature)) {
+                return mapping;
+            }
+        }
+        return null;
+    }
+
+    private static boolean canInherit(ClassInfo parent, ClassInfo child, MethodSignature signature) {
+        InheritanceType type = parent.getMethods().get(signature);
+        if (type == null || type == InheritanceType.NONE) {
+            return false;
+        }
+        return type != InheritanceType.PACKAGE_PRIVATE || getPackage(parent.getName()).equals(getPackage(child.getName()));
+    }
+
+    private static String getPackage(String name) {
+        int index = name.lastIndexOf('/');
+        return index != -1 ? name.substring(0, index) : "";
+    }
+
+    /**
+     * Returns the field mapping with the given signature, like
+     * {@link ClassMapping#computeFieldMapping(FieldSignature)}. Mappings without a
+     * field type match any type, and if there is none either, any mapping with the
+     * same name is used.
+     *
+     * @param binaryName The binary name of the class
+     * @param signature The obfuscated signature of the field
+     * @return The field mapping, or {@code null}
+     */
+    FieldMapping getFieldMapping(String binaryName, FieldSignature signature) {
+        return getFieldMapping(this.classes.get(binaryName, null), signature);
+    }
+
+    private static FieldMapping getFieldMapping(Entry entry, FieldSignature signature) {
+        if (entry == null) {
+            return null;
+        }
+
+        FieldType type = signature.getType().orElse(null);
+        if (type != null) {
+            FieldMapping mapping = entry.fields.get(signature.getName(), type);
+            if (mapping != null) {
+                return mapping;
+            }
+        }
+
+        FieldMapping mapping = entry.fields.get(signature.getName(), null);
+        return mapping != null ? mapping : entry.fieldsByName.get(signature.getName(), null);
+    }
+
+    /**
+     * Returns the full obfuscated name of the outer class, if the class is a
+     * renamed anonymous class. Its members may then be mapped in a sibling
+     * anonymous class, see {@link #getAnonymousClassMethodMapping(String, MethodSignature)}.
+     *
+     * @param binaryName The binary name of the class
+     * @return The full obfuscated name of the outer class, or {@code null}
+     */
+    String getAnonymousClassParent(String binaryName) {
+        Entry entry = this.classes.get(binaryName, null);
+        return entry != null ? entry.anonymousParent : null;
+    }
+
+    /**
+     * Returns the method mapping with the given signature from the sibling
+     * anonymous class that was renamed to this one, or that this one was renamed
+     * to.
+     *
+     * @param binaryName The binary name of the anonymous class
+     * @param signature The obfuscated signature of the method
+     * @return The method mapping, or {@code null}
+     */
+    MethodMapping getAnonymousClassMethodMapping(String binaryName, MethodSignature signature) {
+        Entry entry = this.classes.get(binaryName, null);
+        if (entry == null || entry.siblings == null) {
+            return null;
+        }
+
+        for (String sibling : entry.siblings) {
+            MethodMapping mapping = getMethodMapping(sibling, signature);
+            if (mapping != null) {
+                return mapping;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the field mapping with the given signature from a sibling anonymous
+     * class, like {@link #getAnonymousClassMethodMapping(String, MethodSignature)}.
+     *
+     * @param binaryName The binary name of the anonymous class
+     * @param signature The obfuscated signature of the field
+     * @return The field mapping, or {@code null}
+     */
+    FieldMapping getAnonymousClassFieldMapping(String binaryName, FieldSignature signature) {
+        Entry entry = this.classes.get(binaryName, null);
+        if (entry == null || entry.siblings == null) {
+            return null;
+        }
+
+        for (String sibling : entry.siblings) {
+            FieldMapping mapping = getFieldMapping(this.classes.get(sibling, null), signature);
+            if (mapping != null) {
+                return mapping;
+            }
+        }
+        return null;
+    }
+
+    private static final class Entry {
+
+        final ClassMapping<?, ?> mapping;
+        final Table<MethodMapping> methods;
+        final Table<FieldMapping> fields;
+        final Table<FieldMapping> fieldsByName;
+
+        /**
+         * The outer class of a renamed anonymous class, or {@code null}.
+         */
+        final String anonymousParent;
+
+        /**
+         * The binary names of the sibling anonymous classes to look up members
+         * in, or {@code null}.
+         */
+        final String[] siblings;
+
+        Entry(ClassMapping<?, ?> mapping, Table<MethodMapping> methods, Table<FieldMapping> fields,
+                Table<FieldMapping> fieldsByName, String anonymousParent, String[] siblings) {
+            this.mapping = mapping;
+            this.methods = methods;
+            this.fields = fields;
+            this.fieldsByName = fieldsByName;
+            this.anonymousParent = anonymousParent;
+            this.siblings = siblings;
+        }
+
+    }
+
+    /**
+     * A hash table with linear probing, keyed by a name and an optional descriptor.
+     * It is at most half full, so lookups usually only compare a few keys. Only
+     * the name is hashed, its hash code is cached by the string, while computing
+     * the hash code of a descriptor would allocate on every lookup. Overloads
+     * with the same name are found by comparing the descriptors.
+     */
+    private static final class Table<V> {
+
+        private final String[] names;
+        private final Object[] descriptors;
+        private final Object[] values;
+        private final int mask;
+
+        Table(int size) {
+            int capacity = Integer.highestOneBit(Math.max(size, 1) * 2 - 1) << 1;
+            this.names = new String[capacity];
+            this.descriptors = new Object[capacity];
+            this.values = new Object[capacity];
+            this.mask = capacity - 1;
+        }
+
+        private static int hash(String name) {
+            int h = name.hashCode();
+            return h ^ (h >>> 16);
+        }
+
+        private int find(String name, Object descriptor) {
+            int i = hash(name) & this.mask;
+            for (String current; (current = this.names[i]) != null; i = (i + 1) & this.mask) {
+                if (current.equals(name) && Objects.equals(descriptor, this.descriptors[i])) {
+                    return i;
+                }
+            }
+            return ~i;
+        }
+
+        void put(String name, Object descriptor, Object value) {
+            int i = find(name, descriptor);
+            if (i < 0) {
+                i = ~i;
+                this.names[i] = name;
+                this.descriptors[i] = descriptor;
+            }
+            this.values[i] = value;
+        }
+
+        @SuppressWarnings("unchecked")
+        V get(String name, Object descriptor) {
+            int i = find(name, descriptor);
+            return i >= 0 ? (V) this.values[i] : null;
+        }
+
+    }
+
+    private static final class TableBuilder<V> {
+
+        private final List<String> names = new ArrayList<>();
+        private final List<Object> descriptors = new ArrayList<>();
+        private final List<V> values = new ArrayList<>();
+
+        void put(String name, Object descriptor, V value) {
+            this.names.add(name);
+            this.descriptors.add(descriptor);
+            this.values.add(value);
+        }
+
+        Table<V> build() {
+            Table<V> table = new Table<>(this.names.size());
+            for (int i = 0; i < this.names.size(); i++) {
+                table.put(this.names.get(i), this.descriptors.get(i), this.values.get(i));
+            }
+            return table;
+        }
+
+    }
+
+    /**
+     * Keeps a separate index for each mapping set, by identity.
+     */
+    private static final class Key {
+
+        private final MappingSet mappings;
+
+        Key(MappingSet mappings) {
+            this.mappings = mappings;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Key && ((Key) obj).mappings == this.mappings;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(this.mappings);
+        }
+
+    }
+
+}
@@ -11,13 +11,42 @@
 package org.cadixdev.mercury.remapper;
 
 import org.cadixdev.lorenz.MappingSet;
+import org.cadixdev.lorenz.model.ClassMapping;
+import org.cadixdev.lorenz.model.FieldMapping;
+import org.cadixdev.lorenz.model.InnerClassMapping;
+import org.cadixdev.lorenz.model.MethodMapping;
+import org.cadixdev.lorenz.model.TopLevelClassMapping;
+import org.cadixdev.mercury.Mercury;
 import org.cadixdev.mercury.RewriteContext;
 import org.cadixdev.mercury.SourceRewriter;
+import org.cadixdev.mercury.util.Fingerprint;
 
+import java.util.HashSet;
 import java.util.Objects;
+import java.util.Set;
 
 public final class MercuryRemapper implements SourceRewriter {
 
+    /**
+     * The {@link org.cadixdev.mercury.Metrics#getCounters() counters} for the
+     * class, field and method references that were remapped, and whether a mapping
+     * was found. Every reference is counted, including the ones resolved from the
+     * names remembered for earlier references, see {@link #COUNTER_MEMO_HIT}.
+     */
+    public static final String COUNTER_CLASS_HIT = "mappings.class.hit";
+    public static final String COUNTER_CLASS_MISS = "mappings.class.miss";
+    public static final String COUNTER_FIELD_HIT = "mappings.field.hit";
+    public static final String COUNTER_FIELD_MISS = "mappings.field.miss";
+    public static final String COUNTER_METHOD_HIT = "mappings.method.hit";
+    public static final String COUNTER_METHOD_MISS = "mappings.method.miss";
+
+    /**
+     * The {@link org.cadixdev.mercury.Metrics#getCounters() counter} for the
+     * references that did not need a lookup in the mappings, because an earlier
+     * reference to the same type or member was already remapped.
+     */
+    public static final String COUNTER_MEMO_HIT = "mappings.memo.hit";
+
     public static SourceRewriter create(MappingSet mappings) {
         return new MercuryRemapper(mappings, false, true);
     }
@@ -46,7 +75,53 @@ private MercuryRemapper(MappingSet mappings, boolean simple, boolean javadoc) {
 
     @Override
     public int getFlags() {
-        return FLAG_RESOLVE_BINDINGS;
+        // Javadoc tags are only parsed if they are remapped
+        return this.javadoc ? FLAG_RESOLVE_BINDINGS : FLAG_RESOLVE_BINDINGS | FLAG_IGNORE_JAVADOC;
+    }
+
+    @Override
+    public String getFingerprint() {
+        // Changes to the mappings are detected through the dependencies
+        // recorded by the visitors, see MappingDependencies
+        return new Fingerprint()
+                .add(this.simple)
+                .add(this.javadoc)
+                .finish();
+    }
+
+    @Override
+    public void initialize(Mercury mercury) {
+        // Compile the mappings before the source files are remapped in parallel
+        MappingIndex.get(mercury, this.mappings);
+    }
+
+    @Override
+    public String getDependencyState(String key) {
+        return MappingDependencies.getState(this.mappings, key);
+    }
+
+    @Override
+    public Set<String> getRelevantNames() {
+        Set<String> names = new HashSet<>();
+        for (TopLevelClassMapping mapping : this.mappings.getTopLevelClassMappings()) {
+            names.add(mapping.getSimpleObfuscatedName());
+            addMemberNames(names, mapping);
+        }
+        return names;
+    }
+
+    private static void addMemberNames(Set<String> names, ClassMapping<?, ?> mapping) {
+        for (FieldMapping field : mapping.getFieldMappings()) {
+            names.add(field.getObfuscatedName());
+        }
+        for (MethodMapping method : mapping.getMethodMappings()) {
+            names.add(method.getObfuscatedName());
+        }
+        for (InnerClassMapping inner : mapping.getInnerClassMappings()) {
+            // Names of anonymous classes are never identifiers, they are covered by the outer class
+            names.add(inner.getObfuscatedName());
+            addMemberNames(names, inner);
+        }
     }
 
     @Override
@@ -14,8 +14,6 @@
 
 import org.cadixdev.lorenz.MappingSet;
 import org.cadixdev.lorenz.model.ClassMapping;
-import org.cadixdev.lorenz.model.InnerClassMapping;
-import org.cadixdev.lorenz.model.Mapping;
 import org.cadixdev.lorenz.model.TopLevelClassMapping;
 import org.cadixdev.mercury.RewriteContext;
 import org.cadixdev.mercury.jdt.rewrite.imports.ImportRewrite;
@@ -68,7 +66,8 @@ class RemapperVisitor extends SimpleRemapperVisitor {
         this.importRewrite = context.createImportRewrite();
         importRewrite.setUseContextToFilterImplicitImports(true);
 
-        TopLevelClassMapping primary = mappings.getTopLevelClassMapping(context.getQualifiedPrimaryType()).orElse(null);
+        addClassDependency(context.getQualifiedPrimaryType());
+        TopLevelClassMapping primary = this.index.getTopLevelClassMapping(context.getQualifiedPrimaryType());
         if (primary != null) {
             context.setPackageName(primary.getDeobfuscatedPackage().replace('/', '.'));
             this.importRewrite.setImplicitPackageName(context.getPackageName());
@@ -86,9 +85,9 @@ class RemapperVisitor extends SimpleRemapperVisitor {
                 if (name.equals(simpleObfuscatedName)) {
                     implicitTypes.add(simpleDeobfuscatedName);
                 } else {
-                    implicitTypes.add(mappings.getTopLevelClassMapping(context.getPackageName() + '.' + name)
-                        .map(Mapping::getSimpleDeobfuscatedName)
-                        .orElse(name));
+                    addClassDependency(context.getPackageName() + '.' + name);
+                    TopLevelClassMapping mapping = this.index.getTopLevelClassMapping(context.getPackageName() + '.' + name);
+                    implicitTypes.add(mapping != null ? mapping.getSimpleDeobfuscatedName() : name);
                 }
             }
             this.importRewrite.setImplicitTypes(implicitTypes);
@@ -106,19 +105,32 @@ private void remapType(SimpleName node, ITypeBinding binding) {
             throw new IllegalStateException("Binary name for binding " + binding.getQualifiedName() + " is null. Did you forget to add a library to the classpath?");
         }
 
-        ClassMapping<?, ?> mapping = this.mappings.computeClassMapping(binding.getBinaryName()).orElse(null);
+        addClassDependency(binding.getBinaryName());
+        RenameMemo.TypeName typeName = this.memo.getType(binding.getBinaryName());
+        if (typeName == null) {
+            ClassMapping<?, ?> mapping = this.index.getClassMapping(binding.getBinaryName());
+            String deobfuscatedName = countLookup(this.index.getFullDeobfuscatedName(binding.getBinaryName()),
+                    MercuryRemapper.COUNTER_CLASS_HIT, MercuryRemapper.COUNTER_CLASS_MISS);
+            typeName = new RenameMemo.TypeName(
+                    mapping != null ? mapping.getSimpleDeobfuscatedName() : null,
+                    (deobfuscatedName != null ? deobfuscatedName.replace('/', '.') : binding.getBinaryName()).replace('$', '.'),
+                    deobfuscatedName != null ? MercuryRemapper.COUNTER_CLASS_HIT : MercuryRemapper.COUNTER_CLASS_MISS);
+            this.memo.putType(binding.getBinaryName(), typeName);
+        } else {
+            countMemoHit(typeName.counter);
+        }
 
         if (node.getParent() instanceof AbstractTypeDeclaration
                 || node.getParent() instanceof QualifiedType
                 || node.getParent() instanceof NameQualifiedType
                 || binding.isLocal()) {
-            if (mapping != null) {
-                updateIdentifier(node, mapping.getSimpleDeobfuscatedName());
+            if (typeName.simpleName != null) {
+                updateIdentifier(node, typeName.simpleName);
             }
             return;
         }
 
-        String qualifiedName = (mapping != null ? mapping.getFullDeobfuscatedName().replace('/', '.') : binding.getBinaryName()).replace('$', '.');
+        String qualifiedName = typeName.qualifiedName;
         String newName = this.importRewrite.addImport(qualifiedName, this.importStack.peek());
 
         if (!node.getIdentifier().equals(newName) && !node.isVar()) {
@@ -139,7 +151,9 @@ private void remapQualifiedType(QualifiedName node, ITypeBinding binding) {
             }
             throw new IllegalStateException("No binary name for " + binding.getQualifiedName());
         }
-        TopLevelClassMapping mapping = this.mappings.getTopLevelClassMapping(binaryName).orElse(null);
+        addClassDependency(binaryName);
+        TopLevelClassMapping mapping = countLookup(this.index.getTopLevelClassMapping(binaryName),
+                MercuryRemapper.COUNTER_CLASS_HIT, MercuryRemapper.COUNTER_CLASS_MISS);
 
         if (mapping == null) {
             return;
@@ -162,13 +176,11 @@ private void remapInnerType(QualifiedName qualifiedName, ITypeBinding outerClass
             throw new IllegalStateException("No binary name for " + outerClass.getQualifiedName());
         }
 
-        ClassMapping<?, ?> outerClassMapping = this.mappings.computeClassMapping(binaryName).orElse(null);
-        if (outerClassMapping == null) {
-            return;
-        }
-
         SimpleName node = qualifiedName.getName();
-        InnerClassMapping mapping = outerClassMapping.getInnerClassMapping(node.getIdentifier()).orElse(null);
+        addClassDependency(binaryName + '$' + node.getIdentifier());
+
+        // Inner classes of outer classes without a mapping are not mapped either
+        ClassMapping<?, ?> mapping = this.index.getClassMapping(binaryName + '$' + node.getIdentifier());
         if (mapping == null) {
             return;
         }
@@ -274,13 +286,14 @@ public boolean visit(NameQualifiedType node) {
             throw new IllegalStateException("No binding for qualified name node " + node.getName());
         }
 
-        final ClassMapping<?, ?> classMapping = this.mappings.computeClassMapping(binding.getBinaryName()).orElse(null);
-        if (classMapping == null) {
+        addClassDependency(binding.getBinaryName());
+        final String deobfName = this.index.getFullDeobfuscatedName(binding.getBinaryName());
+        if (deobfName == null) {
             return false;
         }
 
         // qualified -> default package (test.@NonNull ObfClass -> @NonNull Core):
-        final String deobfPackage = classMapping.getDeobfuscatedPackage();
+        final String deobfPackage = getPackageName(deobfName);
         final ASTRewrite rewrite = this.context.createASTRewrite();
         if (deobfPackage == null || deobfPackage.isEmpty()) {
             // if we have annotations, those need to be moved to a new SimpleType node
@@ -336,8 +349,9 @@ public boolean visit(ImportDeclaration node) {
                         throw new IllegalStateException("No binary name for " + typeBinding.getQualifiedName() + ". Did you add the library to the classpath?");
                     }
 
-                    ClassMapping<?, ?> mapping = this.mappings.computeClassMapping(name).orElse(null);
-                    if (mapping != null && !name.equals(mapping.getFullDeobfuscatedName().replace('/', '.'))) {
+                    addClassDependency(name);
+                    String deobfName = this.index.getFullDeobfuscatedName(name);
+                    if (deobfName != null && !name.equals(deobfName.replace('/', '.'))) {
                         this.importRewrite.removeImport(typeBinding.getQualifiedName());
                     } else if (this.simpleDeobfuscatedName != null && this.simpleDeobfuscatedName.equals(typeBinding.getName())) {
                         this.importRewrite.removeImport(typeBinding.getQualifiedName());
@@ -374,11 +388,13 @@ private void collectImportContext(ImportContext context, ITypeBinding binding) {
                 }
             }
 
-            ClassMapping<?, ?> mapping = this.mappings.computeClassMapping(inner.getBinaryName()).orElse(null);
+            addClassDependency(inner.getBinaryName());
+            ClassMapping<?, ?> mapping = this.index.getClassMapping(inner.getBinaryName());
+            String deobfName = this.index.getFullDeobfuscatedName(inner.getBinaryName());
 
             if (isPackagePrivate(modifiers)) {
                 // Must come from the same package
-                String packageName = mapping != null ? mapping.getDeobfuscatedPackage() : inner.getPackage().getName();
+                String packageName = deobfName != null ? getPackageName(deobfName) : inner.getPackage().getName();
                 if (!packageName.replace('/', '.').equals(this.context.getPackageName().replace('/', '.'))) {
                     continue;
                 }
@@ -386,9 +402,9 @@ private void collectImportContext(ImportContext context, ITypeBinding binding) {
 
             String simpleName;
             String qualifiedName;
-            if (mapping != null) {
-                simpleName = mapping.getSimpleDeobfuscatedName();
-                qualifiedName = mapping.getFullDeobfuscatedName().replace('/', '.').replace('$', '.');
+            if (deobfName != null) {
+                simpleName = mapping != null ? mapping.getSimpleDeobfuscatedName() : inner.getName();
+                qualifiedName = deobfName.replace('/', '.').replace('$', '.');
             } else {
                 simpleName = inner.getName();
                 qualifiedName = inner.getBinaryName().replace('$', '.');
@@ -473,6 +489,15 @@ private void transferAnnotations(final AnnotatableType oldNode, final Annotatabl
         }
     }
 
+    /**
+     * Returns the package of a full class name, e.g. {@code com/example} for
+     * {@code com/example/Outer$Inner}, or an empty string for the root package.
+     */
+    private static String getPackageName(String className) {
+        int index = className.lastIndexOf('/');
+        return index != -1 ? className.substring(0, index) : "";
+    }
+
     private static class ImportContext extends ImportRewrite.ImportRewriteContext {
         private final ImportRewrite.ImportRewriteContext defaultContext;
         final Map<String, String> implicit;
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury.remapper;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers the new names of the bindings that were already remapped, for all
+ * source files of a run. Most references in a source tree point to a few popular
+ * types and members, which then only need to be looked up in the mappings once.
+ *
+ * <p>The memo is kept in the {@link MappingIndex} of the run, so changes to the
+ * mappings between runs are always picked up. Members also remember the
+ * {@link MappingDependencies dependencies} and counters of their lookup, so they
+ * can be recorded for every source file that uses the memo.</p>
+ */
+final class RenameMemo {
+
+    private final Map<String, Member> members = new ConcurrentHashMap<>();
+    private final Map<String, TypeName> types = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the new name of a method or field, by its binding key.
+     *
+     * @param key The binding key
+     * @return The member, or {@code null} if it was not remapped yet
+     */
+    Member getMember(String key) {
+        return this.members.get(key);
+    }
+
+    void putMember(String key, Member member) {
+        this.members.put(key, member);
+    }
+
+    /**
+     * Returns the new name of a type, by its binary name.
+     *
+     * @param binaryName The binary name
+     * @return The new name, or {@code null} if it was not remapped yet
+     */
+    TypeName getType(String binaryName) {
+        return this.types.get(binaryName);
+    }
+
+    void putType(String binaryName, TypeName name) {
+        this.types.put(binaryName, name);
+    }
+
+    static final class Member {
+
+        /**
+         * The deobfuscated name, or {@code null} if the member is not mapped.
+         */
+        final String name;
+
+        /**
+         * The keys of the dependencies recorded while looking up the member, or
+         * {@code null} if dependencies were not tracked.
+         */
+        final String[] dependencies;
+
+        /**
+         * The {@link MercuryRemapper metrics counter} recorded by the lookup, or
+         * {@code null} if there was none.
+         */
+        final String counter;
+
+        Member(String name, String[] dependencies, String counter) {
+            this.name = name;
+            this.dependencies = dependencies;
+            this.counter = counter;
+        }
+
+    }
+
+    static final class TypeName {
+
+        /**
+         * The deobfuscated simple name, or {@code null} if the type is not mapped.
+         */
+        final String simpleName;
+
+        /**
+         * The qualified source name, e.g. {@code com.example.Outer.Inner}.
+         */
+        final String qualifiedName;
+
+        /**
+         * The {@link MercuryRemapper metrics counter} recorded by the lookup.
+         */
+        final String counter;
+
+        TypeName(String simpleName, String qualifiedName, String counter) {
+            this.simpleName = simpleName;
+            this.qualifiedName = qualifiedName;
+            this.counter = counter;
+        }
+
+    }
+
+}
@@ -13,13 +13,12 @@
 import static org.cadixdev.mercury.util.BombeBindings.convertSignature;
 
 import org.cadixdev.bombe.analysis.InheritanceProvider;
+import org.cadixdev.bombe.analysis.InheritanceProvider.ClassInfo;
 import org.cadixdev.bombe.type.signature.FieldSignature;
 import org.cadixdev.bombe.type.signature.MethodSignature;
 import org.cadixdev.lorenz.MappingSet;
 import org.cadixdev.lorenz.model.ClassMapping;
 import org.cadixdev.lorenz.model.FieldMapping;
-import org.cadixdev.lorenz.model.InnerClassMapping;
-import org.cadixdev.lorenz.model.MemberMapping;
 import org.cadixdev.lorenz.model.MethodMapping;
 import org.cadixdev.lorenz.model.MethodParameterMapping;
 import org.cadixdev.mercury.RewriteContext;
@@ -39,13 +38,16 @@
 import org.eclipse.jdt.core.dom.VariableDeclaration;
 import org.eclipse.jdt.internal.compiler.lookup.PackageBinding;
 
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.Objects;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
-import java.util.function.BiFunction;
+import java.util.function.Function;
 
 /**
  * Remaps only methods, fields, and parameters.
@@ -57,147 +59,230 @@ class SimpleRemapperVisitor extends ASTVisitor {
     private static final String NEW_PARAM_NAMES_PROPERTY = "org.cadixdev.mercury.newParamNames";
 
     final RewriteContext context;
-    final MappingSet mappings;
     private final InheritanceProvider inheritanceProvider;
+    private final boolean trackDependencies;
+    final MappingIndex index;
+    final RenameMemo memo;
+    // Stored here instead of as AST node properties, since the same AST may be remapped with other mappings
+    private final Map<ASTNode, Map<String, Object>> properties = new IdentityHashMap<>();
+    // The dependencies of the member that is currently looked up, to store them in the memo
+    private List<String> recordedDependencies;
+    // The counter of the member that is currently looked up, to store it in the memo
+    private String recordedCounter;
 
     SimpleRemapperVisitor(RewriteContext context, MappingSet mappings, boolean javadoc) {
         super(javadoc);
         this.context = context;
-        this.mappings = mappings;
         this.inheritanceProvider = MercuryInheritanceProvider.get(context.getMercury());
+        this.trackDependencies = context.isTrackingDependencies();
+        this.index = MappingIndex.get(context.getMercury(), mappings);
+        this.memo = this.index.memo;
     }
 
-    final void updateIdentifier(SimpleName node, String newName) {
-        if (!node.getIdentifier().equals(newName) && !node.isVar()) {
-            this.context.createASTRewrite().set(node, SimpleName.IDENTIFIER_PROPERTY, newName, null);
+    private void addDependency(String key) {
+        this.context.addDependency(key);
+        if (this.recordedDependencies != null) {
+            this.recordedDependencies.add(key);
         }
     }
 
-    private void remapMethod(SimpleName node, IMethodBinding binding) {
-        ITypeBinding declaringClass = binding.getDeclaringClass();
-        if (GracefulCheck.checkGracefully(this.context, declaringClass)) {
-            return;
+    final void addClassDependency(String className) {
+        if (this.trackDependencies) {
+            addDependency(MappingDependencies.classKey(className));
         }
-        final ClassMapping<?, ?> classMapping = this.mappings.getOrCreateClassMapping(declaringClass.getBinaryName());
-
-        if (binding.isConstructor()) {
-            updateIdentifier(node, classMapping.getSimpleDeobfuscatedName());
-        } else {
-            final MethodMapping mapping = findMethodMapping(declaringClass, binding);
-            if (mapping == null) {
-                return;
-            }
+    }
 
-            updateIdentifier(node, mapping.getDeobfuscatedName());
+    private void addMethodDependency(String className, MethodSignature signature) {
+        if (this.trackDependencies) {
+            addDependency(MappingDependencies.methodKey(className, signature));
         }
     }
 
-    private void remapField(SimpleName node, IVariableBinding binding) {
-        if (!binding.isField()) {
-            if (binding.isParameter()) {
-                remapParameter(node, binding);
-            } else {
-                checkLocalVariable(node, binding);
+    /**
+     * Returns the method mapping that the given class inherits from one of its
+     * parents, and records the method mappings of all searched parents.
+     */
+    private MethodMapping findInheritedMethodMapping(ITypeBinding declaringClass, MethodSignature signature) {
+        ClassInfo info = this.inheritanceProvider.provide(declaringClass.getBinaryName().replace('.', '/'), declaringClass).orElse(null);
+        if (info == null) {
+            return null;
+        }
+
+        List<String> parents = this.trackDependencies ? new ArrayList<>() : null;
+        MethodMapping mapping = this.index.getInheritedMethodMapping(this.inheritanceProvider, info, signature, parents);
+        if (parents != null) {
+            for (String parent : parents) {
+                addMethodDependency(parent, signature);
             }
+        }
+        return mapping;
+    }
 
-            return;
+    /**
+     * Returns whether members of the given class may be mapped in a sibling
+     * anonymous class, see {@link MappingIndex#getAnonymousClassParent(String)}.
+     */
+    private boolean isFlexibleAnonymousClass(String binaryName) {
+        if (!this.context.getMercury().isFlexibleAnonymousClassMemberLookups()) {
+            return false;
         }
 
-        ITypeBinding declaringClass = binding.getDeclaringClass();
-        if (declaringClass == null) {
-            return;
+        String parent = this.index.getAnonymousClassParent(binaryName);
+        if (parent == null) {
+            return false;
+        }
+        if (this.trackDependencies) {
+            addDependency(MappingDependencies.classTreeKey(parent));
         }
+        return true;
+    }
 
-        ClassMapping<?, ?> classMapping = this.mappings.getClassMapping(declaringClass.getBinaryName()).orElse(null);
-        if (classMapping == null) {
-            return;
+    /**
+     * Records whether a mapping was found in the {@link MercuryRemapper metrics counters}.
+     */
+    final <T> T countLookup(T mapping, String hit, String miss) {
+        count(mapping != null ? hit : miss);
+        return mapping;
+    }
+
+    private void count(String counter) {
+        this.context.incrementCounter(counter);
+        this.recordedCounter = counter;
+    }
+
+    /**
+     * Records a reference that was resolved from the memo, with the counter of
+     * its original lookup, so the counters do not depend on the memo.
+     */
+    final void countMemoHit(String counter) {
+        if (counter != null) {
+            this.context.incrementCounter(counter);
         }
+        this.context.incrementCounter(MercuryRemapper.COUNTER_MEMO_HIT);
+    }
 
-        FieldSignature bindingSignature = convertSignature(binding);
-        FieldMapping mapping = findMemberMapping(bindingSignature, classMapping, ClassMapping::computeFieldMapping);
-        if (mapping == null) {
-            return;
+    final void updateIdentifier(SimpleName node, String newName) {
+        if (!node.getIdentifier().equals(newName) && !node.isVar()) {
+            this.context.createASTRewrite().set(node, SimpleName.IDENTIFIER_PROPERTY, newName, null);
+        }
+    }
+
+    /**
+     * Returns the memoized new name of the given member, or looks it up with the
+     * given function. The dependencies and the counter recorded by the lookup are
+     * stored in the memo, and recorded again on every later use.
+     */
+    private <B extends IBinding> String getMemberName(B binding, Function<B, String> lookup) {
+        final String key = binding.getKey();
+        RenameMemo.Member member = this.memo.getMember(key);
+        if (member == null) {
+            this.recordedDependencies = this.trackDependencies ? new ArrayList<>() : null;
+            this.recordedCounter = null;
+            try {
+                String name = lookup.apply(binding);
+                member = new RenameMemo.Member(name, this.trackDependencies ? this.recordedDependencies.toArray(new String[0]) : null,
+                        this.recordedCounter);
+            } finally {
+                this.recordedDependencies = null;
+            }
+            this.memo.putMember(key, member);
+        } else {
+            countMemoHit(member.counter);
+            if (this.trackDependencies) {
+                for (String dependency : member.dependencies) {
+                    this.context.addDependency(dependency);
+                }
+            }
         }
+        return member.name;
+    }
 
-        updateIdentifier(node, mapping.getDeobfuscatedName());
+    private void remapMethod(SimpleName node, IMethodBinding binding) {
+        final String newName = getMemberName(binding, this::findMethodName);
+        if (newName != null) {
+            updateIdentifier(node, newName);
+        }
     }
 
-    private MethodMapping findMethodMapping(ITypeBinding declaringClass, IMethodBinding declaringMethod) {
-        final ClassMapping<?, ?> classMapping = this.mappings.getClassMapping(declaringClass.getBinaryName()).orElse(null);
-        if (classMapping == null) {
+    private String findMethodName(IMethodBinding binding) {
+        ITypeBinding declaringClass = binding.getDeclaringClass();
+        if (GracefulCheck.checkGracefully(this.context, declaringClass)) {
             return null;
         }
 
-        final MethodSignature methodSig = convertSignature(declaringMethod);
-        MethodMapping methodMapping = findMemberMapping(methodSig, classMapping, ClassMapping::getMethodMapping);
-        if (methodMapping == null) {
-            classMapping.complete(this.inheritanceProvider, declaringClass);
-            methodMapping = classMapping.getMethodMapping(methodSig).orElse(null);
+        if (binding.isConstructor()) {
+            addClassDependency(declaringClass.getBinaryName());
+            final ClassMapping<?, ?> classMapping = this.index.getClassMapping(declaringClass.getBinaryName());
+            return classMapping != null ? classMapping.getSimpleDeobfuscatedName() : null;
         }
 
-        return methodMapping;
+        final MethodMapping mapping = findMethodMapping(declaringClass, binding);
+        return mapping != null ? mapping.getDeobfuscatedName() : null;
     }
 
-    private <T extends MemberMapping<?, ?>, M> T findMemberMapping(
-        M matcher,
-        ClassMapping<?, ?> classMapping,
-        BiFunction<ClassMapping<?, ?>, M, Optional<? extends T>> getMapping
-    ) {
-        T mapping = getMapping.apply(classMapping, matcher).orElse(null);
-        if (mapping != null) {
-            return mapping;
+    private void remapField(SimpleName node, IVariableBinding binding) {
+        if (!binding.isField()) {
+            if (binding.isParameter()) {
+                remapParameter(node, binding);
+            } else {
+                checkLocalVariable(node, binding);
+            }
+
+            return;
         }
 
-        if (!this.context.getMercury().isFlexibleAnonymousClassMemberLookups()) {
-            return null;
+        final String newName = getMemberName(binding, this::findFieldName);
+        if (newName != null) {
+            updateIdentifier(node, newName);
         }
-        return findMemberMappingAnonClass(matcher, classMapping, getMapping);
     }
 
-    private <T extends MemberMapping<?, ?>, M> T findMemberMappingAnonClass(
-        M matcher,
-        ClassMapping<?, ?> classMapping,
-        BiFunction<ClassMapping<?, ?>, M, Optional<? extends T>> getMapping
-    ) {
-        // If neither name is different then this method won't do anything
-        if (Objects.equals(classMapping.getObfuscatedName(), classMapping.getDeobfuscatedName())) {
+    private String findFieldName(IVariableBinding binding) {
+        ITypeBinding declaringClass = binding.getDeclaringClass();
+        if (declaringClass == null) {
             return null;
         }
-        // Anonymous classes must be inner classes
-        if (!(classMapping instanceof InnerClassMapping)) {
-            return null;
+
+        if (this.trackDependencies) {
+            addDependency(MappingDependencies.fieldKey(declaringClass.getBinaryName(), binding.getName()));
         }
-        // Verify this is inner class is anonymous
-        if (!classMapping.getObfuscatedName().chars().allMatch(Character::isDigit)) {
+
+        final String binaryName = declaringClass.getBinaryName();
+        if (this.index.getClassMapping(binaryName) == null) {
+            count(MercuryRemapper.COUNTER_FIELD_MISS);
             return null;
         }
-        ClassMapping<?, ?> parentMapping = ((InnerClassMapping) classMapping).getParent();
-        if (parentMapping == null) {
-            return null;
+
+        FieldSignature bindingSignature = convertSignature(binding);
+        FieldMapping mapping = this.index.getFieldMapping(binaryName, bindingSignature);
+        if (mapping == null && isFlexibleAnonymousClass(binaryName)) {
+            mapping = this.index.getAnonymousClassFieldMapping(binaryName, bindingSignature);
         }
+        countLookup(mapping, MercuryRemapper.COUNTER_FIELD_HIT, MercuryRemapper.COUNTER_FIELD_MISS);
+        return mapping != null ? mapping.getDeobfuscatedName() : null;
+    }
 
-        // Find a sibling anonymous class whose obfuscated name is our deobfuscated name
-        ClassMapping<?, ?> otherClassMapping = parentMapping
-                .getInnerClassMapping(classMapping.getDeobfuscatedName()).orElse(null);
-        if (otherClassMapping != null) {
-            T mapping = getMapping.apply(otherClassMapping, matcher).orElse(null);
-            if (mapping != null) {
-                return mapping;
+    private MethodMapping findMethodMapping(ITypeBinding declaringClass, IMethodBinding declaringMethod) {
+        final String binaryName = declaringClass.getBinaryName();
+        if (this.index.getClassMapping(binaryName) == null) {
+            if (this.trackDependencies) {
+                addMethodDependency(binaryName, convertSignature(declaringMethod));
             }
+            count(MercuryRemapper.COUNTER_METHOD_MISS);
+            return null;
         }
 
-        // Find a sibling anonymous class whose deobfuscated name is our obfuscated name
-        // We have to do something a little less direct for this case
-        for (InnerClassMapping innerClassMapping : parentMapping.getInnerClassMappings()) {
-            if (Objects.equals(classMapping.getObfuscatedName(), innerClassMapping.getDeobfuscatedName())) {
-                otherClassMapping = innerClassMapping;
-                break;
-            }
+        final MethodSignature methodSig = convertSignature(declaringMethod);
+        addMethodDependency(binaryName, methodSig);
+        MethodMapping methodMapping = this.index.getMethodMapping(binaryName, methodSig);
+        if (methodMapping == null && isFlexibleAnonymousClass(binaryName)) {
+            methodMapping = this.index.getAnonymousClassMethodMapping(binaryName, methodSig);
         }
-        if (otherClassMapping == null) {
-            return null;
+        if (methodMapping == null) {
+            methodMapping = findInheritedMethodMapping(declaringClass, methodSig);
         }
-        return getMapping.apply(otherClassMapping, matcher).orElse(null);
+
+        return countLookup(methodMapping, MercuryRemapper.COUNTER_METHOD_HIT, MercuryRemapper.COUNTER_METHOD_MISS);
     }
 
     private void remapParameter(SimpleName node, IVariableBinding binding) {
@@ -249,7 +334,7 @@ private void remapParameter(SimpleName node, IVariableBinding binding) {
      */
     private void checkLocalVariable(SimpleName node, IVariableBinding binding) {
         final ASTNode bindingNode = this.context.getCompilationUnit().findDeclaringNode(binding);
-        final String localVariableName = (String) bindingNode.getProperty(LOCAL_VARIABLE_NAME_PROPERTY);
+        final String localVariableName = (String) getProperty(bindingNode, LOCAL_VARIABLE_NAME_PROPERTY);
         if (localVariableName != null) {
             updateIdentifier(node, localVariableName);
             return;
@@ -319,17 +404,21 @@ private void checkLocalVariableWithMappings(
             Block body
     ) {
         final ITypeBinding declaringClass = binding.getDeclaringClass();
-        this.mappings.getClassMapping(declaringClass.getBinaryName())
-                .flatMap(classMapping -> {
-                    classMapping.complete(this.inheritanceProvider, declaringClass);
-                    return classMapping.getMethodMapping(convertSignature(binding));
-                })
-                .ifPresent(methodMapping -> {
-                    if (!methodMapping.getParameterMappings().isEmpty()) {
-                        final Set<String> newParamNames = newParamNames(declaration, methodMapping);
-                        checkLocalVariableForConflicts(node, bindingNode, blockDeclaringMethod, body, newParamNames);
-                    }
-                });
+        final String binaryName = declaringClass.getBinaryName();
+        final MethodSignature signature = convertSignature(binding);
+        addMethodDependency(binaryName, signature);
+        if (this.index.getClassMapping(binaryName) == null) {
+            return;
+        }
+
+        MethodMapping methodMapping = this.index.getMethodMapping(binaryName, signature);
+        if (methodMapping == null) {
+            methodMapping = findInheritedMethodMapping(declaringClass, signature);
+        }
+        if (methodMapping != null && !methodMapping.getParameterMappings().isEmpty()) {
+            final Set<String> newParamNames = newParamNames(declaration, methodMapping);
+            checkLocalVariableForConflicts(node, bindingNode, blockDeclaringMethod, body, newParamNames);
+        }
     }
 
     /**
@@ -364,7 +453,7 @@ private void checkLocalVariableForConflicts(
         }
 
         localVariableNames.add(newName);
-        bindingNode.setProperty(LOCAL_VARIABLE_NAME_PROPERTY, newName);
+        setProperty(bindingNode, LOCAL_VARIABLE_NAME_PROPERTY, newName);
         updateIdentifier(node, newName);
     }
 
@@ -400,7 +489,7 @@ private Set<String> collectLocalVariableNames(IMethodBinding blockDeclaringMetho
             return result;
         }
         result = new HashSet<>();
-        block.setProperty(LVT_NAMES_PROPERTY, result);
+        setProperty(block, LVT_NAMES_PROPERTY, result);
 
         final IVariableBinding[] synthLocals = blockDeclaringMethod.getSyntheticOuterLocals();
         for (final IVariableBinding synthLocal : synthLocals) {
@@ -437,7 +526,7 @@ private Set<String> newParamNames(MethodDeclaration methodDeclaration, MethodMap
             return result;
         }
         result = new HashSet<>();
-        methodDeclaration.setProperty(NEW_PARAM_NAMES_PROPERTY, result);
+        setProperty(methodDeclaration, NEW_PARAM_NAMES_PROPERTY, result);
 
         @SuppressWarnings("unchecked")
         List<SingleVariableDeclaration> parameters = methodDeclaration.parameters();
@@ -461,11 +550,11 @@ private Set<String> newParamNames(MethodDeclaration methodDeclaration, MethodMap
      * @param node The node to check the property on
      * @return The set stored on the node or {@code null} if empty
      */
-    private static Set<String> checkProperty(String propName, ASTNode node) {
+    private Set<String> checkProperty(String propName, ASTNode node) {
         if (node == null) {
             return null;
         }
-        final Object value = node.getProperty(propName);
+        final Object value = getProperty(node, propName);
         if (value instanceof Set) {
             @SuppressWarnings("unchecked") final Set<String> result = (Set<String>) value;
             return result;
@@ -473,6 +562,15 @@ private static Set<String> checkProperty(String propName, ASTNode node) {
         return null;
     }
 
+    private Object getProperty(ASTNode node, String propName) {
+        final Map<String, Object> nodeProperties = this.properties.get(node);
+        return nodeProperties != null ? nodeProperties.get(propName) : null;
+    }
+
+    private void setProperty(ASTNode node, String propName, Object value) {
+        this.properties.computeIfAbsent(node, n -> new HashMap<>()).put(propName, value);
+    }
+
     protected void visit(SimpleName node, IBinding binding) {
         switch (binding.getKind()) {
             case IBinding.METHOD:
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Builds a SHA-256 hash over a sequence of values, used to detect changes
+ * to the inputs of incremental runs.
+ */
+public final class Fingerprint {
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final MessageDigest digest;
+
+    public Fingerprint() {
+        try {
+            this.digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new AssertionError(e);
+        }
+    }
+
+    public static String of(byte[] bytes) {
+        return new Fingerprint().add(bytes).finish();
+    }
+
+    public Fingerprint add(byte[] bytes) {
+        add(bytes.length);
+        this.digest.update(bytes);
+        return this;
+    }
+
+    public Fingerprint add(String value) {
+        return add(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public Fingerprint add(int value) {
+        this.digest.update((byte) (value >>> 24));
+        this.digest.update((byte) (value >>> 16));
+        this.digest.update((byte) (value >>> 8));
+        this.digest.update((byte) value);
+        return this;
+    }
+
+    public Fingerprint add(long value) {
+        add((int) (value >>> 32));
+        return add((int) value);
+    }
+
+    public Fingerprint add(boolean value) {
+        this.digest.update((byte) (value ? 1 : 0));
+        return this;
+    }
+
+    public String finish() {
+        byte[] hash = this.digest.digest();
+        char[] result = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            result[i * 2] = HEX_DIGITS[(hash[i] >> 4) & 0xF];
+            result[i * 2 + 1] = HEX_DIGITS[hash[i] & 0xF];
+        }
+        return new String(result);
+    }
+
+}
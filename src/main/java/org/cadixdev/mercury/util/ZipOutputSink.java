@@ -0,0 +1,308 @@
+/*
+ * Copyright (c) 2018 Cadix Development (https://www.cadixdev.org)
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the Eclipse Public License 2.0 which accompanies this distribution,
+ * and is available at https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ */
+
+package org.cadixdev.mercury.util;
+
+import org.cadixdev.mercury.OutputSink;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+/**
+ * Writes the source files into a zip (or sources jar) archive, instead of a
+ * directory.
+ *
+ * <p>Each file is compressed as it is written, and appended to a temporary
+ * spill file next to the archive, so only the names, sizes and checksums are
+ * kept in memory. When the sink is closed, the compressed files are copied into
+ * the archive with the entries sorted by their path and a constant timestamp,
+ * so the same sources always result in the same archive.</p>
+ */
+public final class ZipOutputSink implements OutputSink {
+
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_HEADER = 0x06054b50;
+    private static final int ZIP64_END_HEADER = 0x06064b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+
+    private static final int VERSION = 20;
+    private static final int ZIP64_VERSION = 45;
+    private static final int ZIP64_EXTRA = 0x0001;
+    private static final int UTF8_FLAG = 0x0800;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+
+    // 1980-01-01 00:00, the earliest date that can be represented
+    private static final int DOS_TIME = 0;
+    private static final int DOS_DATE = (1 << 5) | 1;
+
+    private final Path file;
+    private final Path spillFile;
+    private final int level;
+
+    // Guarded by this
+    private final Map<String, Entry> entries = new TreeMap<>();
+    private FileChannel spill;
+    private long spillSize;
+    private boolean closed;
+
+    public ZipOutputSink(Path file) {
+        this(file, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    /**
+     * Creates a sink for the given archive.
+     *
+     * @param file The archive file, replaced when the sink is closed
+     * @param level The compression level, from {@link Deflater#NO_COMPRESSION}
+     *     to {@link Deflater#BEST_COMPRESSION}
+     */
+    public ZipOutputSink(Path file, int level) {
+        if ((level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) && level != Deflater.DEFAULT_COMPRESSION) {
+            throw new IllegalArgumentException("Invalid compression level: " + level);
+        }
+
+        this.file = Objects.requireNonNull(file, "file");
+        this.spillFile = file.resolveSibling(file.getFileName() + ".spill");
+        this.level = level;
+    }
+
+    @Override
+    public void write(String path, byte[] content) throws IOException {
+        // Compress outside of the lock, so files written from multiple threads are compressed in parallel
+        CRC32 crc = new CRC32();
+        crc.update(content);
+
+        byte[] data = deflate(content);
+        int method = ZipEntry.DEFLATED;
+        if (data.length >= content.length) {
+            // Not worth compressing (e.g. empty files and directories)
+            data = content;
+            method = ZipEntry.STORED;
+        }
+
+        synchronized (this) {
+            if (this.closed) {
+                throw new IllegalStateException("Sink is already closed: " + this.file);
+            }
+
+            if (this.spill == null) {
+                this.spill = FileChannel.open(this.spillFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+
+            long offset = this.spillSize;
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                this.spillSize += this.spill.write(buffer, this.spillSize);
+            }
+
+            // Replaced files are left in the spill file, they are not copied into the archive
+            this.entries.put(path, new Entry(method, crc.getValue(), offset, data.length, content.length));
+        }
+    }
+
+    private byte[] deflate(byte[] content) {
+        Deflater deflater = new Deflater(this.level, true);
+        try {
+            deflater.setInput(content);
+            deflater.finish();
+
+            byte[] result = new byte[Math.max(content.length / 2, 64)];
+            int size = 0;
+            while (!deflater.finished()) {
+                if (size == result.length) {
+                    result = Arrays.copyOf(result, result.length * 2);
+                }
+                size += deflater.deflate(result, size, result.length - size);
+            }
+            return size == result.length ? result : Arrays.copyOf(result, size);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (this.closed) {
+            return;
+        }
+        this.closed = true;
+
+        Path temp = this.file.resolveSibling(this.file.getFileName() + ".tmp");
+        try {
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE)) {
+                for (Map.Entry<String, Entry> entry : this.entries.entrySet()) {
+                    entry.getValue().headerOffset = out.position();
+                    writeLocalHeader(out, entry.getKey(), entry.getValue());
+                    copy(entry.getValue(), out);
+                }
+
+                long centralOffset = out.position();
+                for (Map.Entry<String, Entry> entry : this.entries.entrySet()) {
+                    writeCentralHeader(out, entry.getKey(), entry.getValue());
+                }
+                writeEnd(out, centralOffset, out.position() - centralOffset);
+            }
+            Files.move(temp, this.file, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            this.entries.clear();
+            if (this.spill != null) {
+                this.spill.close();
+                this.spill = null;
+            }
+            Files.deleteIfExists(this.spillFile);
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private void copy(Entry entry, FileChannel out) throws IOException {
+        long position = 0;
+        while (position < entry.compressedSize) {
+            long count = this.spill.transferTo(entry.offset + position, entry.compressedSize - position, out);
+            if (count <= 0) {
+                throw new IOException("Spill file is truncated: " + this.spillFile);
+            }
+            position += count;
+        }
+    }
+
+    private static void writeLocalHeader(FileChannel out, String name, Entry entry) throws IOException {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = allocate(30 + nameBytes.length)
+                .putInt(LOCAL_HEADER)
+                .putShort((short) VERSION)
+                .putShort((short) UTF8_FLAG)
+                .putShort((short) entry.method)
+                .putShort((short) DOS_TIME)
+                .putShort((short) DOS_DATE)
+                .putInt((int) entry.crc)
+                .putInt(entry.compressedSize)
+                .putInt(entry.size)
+                .putShort((short) nameBytes.length)
+                .putShort((short) 0)
+                .put(nameBytes);
+        write(out, buffer);
+    }
+
+    private static void writeCentralHeader(FileChannel out, String name, Entry entry) throws IOException {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+
+        // Entries beyond 4 GiB store their offset in a Zip64 extra field
+        boolean zip64 = entry.headerOffset >= ZIP64_MAGIC;
+        int extraLength = zip64 ? 12 : 0;
+
+        ByteBuffer buffer = allocate(46 + nameBytes.length + extraLength)
+                .putInt(CENTRAL_HEADER)
+                .putShort((short) (zip64 ? ZIP64_VERSION : VERSION))
+                .putShort((short) (zip64 ? ZIP64_VERSION : VERSION))
+                .putShort((short) UTF8_FLAG)
+                .putShort((short) entry.method)
+                .putShort((short) DOS_TIME)
+                .putShort((short) DOS_DATE)
+                .putInt((int) entry.crc)
+                .putInt(entry.compressedSize)
+                .putInt(entry.size)
+                .putShort((short) nameBytes.length)
+                .putShort((short) extraLength)
+                .putShort((short) 0) // Comment
+                .putShort((short) 0) // Disk
+                .putShort((short) 0) // Internal attributes
+                .putInt(0) // External attributes
+                .putInt((int) (zip64 ? ZIP64_MAGIC : entry.headerOffset))
+                .put(nameBytes);
+        if (zip64) {
+            buffer.putShort((short) ZIP64_EXTRA).putShort((short) 8).putLong(entry.headerOffset);
+        }
+        write(out, buffer);
+    }
+
+    private void writeEnd(FileChannel out, long centralOffset, long centralSize) throws IOException {
+        int count = this.entries.size();
+        boolean zip64 = count >= ZIP64_MAGIC_COUNT || centralOffset >= ZIP64_MAGIC || centralSize >= ZIP64_MAGIC;
+
+        if (zip64) {
+            long endOffset = out.position();
+            write(out, allocate(56)
+                    .putInt(ZIP64_END_HEADER)
+                    .putLong(44) // Size of the remaining record
+                    .putShort((short) ZIP64_VERSION)
+                    .putShort((short) ZIP64_VERSION)
+                    .putInt(0) // Disk
+                    .putInt(0) // Disk of the central directory
+                    .putLong(count)
+                    .putLong(count)
+                    .putLong(centralSize)
+                    .putLong(centralOffset));
+            write(out, allocate(20)
+                    .putInt(ZIP64_LOCATOR)
+                    .putInt(0) // Disk of the Zip64 end record
+                    .putLong(endOffset)
+                    .putInt(1)); // Number of disks
+        }
+
+        write(out, allocate(22)
+                .putInt(END_HEADER)
+                .putShort((short) 0) // Disk
+                .putShort((short) 0) // Disk of the central directory
+                .putShort((short) Math.min(count, ZIP64_MAGIC_COUNT))
+                .putShort((short) Math.min(count, ZIP64_MAGIC_COUNT))
+                .putInt((int) Math.min(centralSize, ZIP64_MAGIC))
+                .putInt((int) Math.min(centralOffset, ZIP64_MAGIC))
+                .putShort((short) 0)); // Comment
+    }
+
+    private static ByteBuffer allocate(int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static void write(FileChannel out, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    private static final class Entry {
+
+        final int method;
+        final long crc;
+        final long offset;
+        final int compressedSize;
+        final int size;
+        long headerOffset;
+
+        Entry(int method, long crc, long offset, int compressedSize, int size) {
+            this.method = method;
+            this.crc = crc;
+            this.offset = offset;
+            this.compressedSize = compressedSize;
+            this.size = size;
+        }
+
+    }
+
+}
@@ -11,25 +11,71 @@
 package org.cadixdev.mercury.test;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
+import org.cadixdev.at.AccessChange;
+import org.cadixdev.at.AccessTransform;
+import org.cadixdev.at.AccessTransformSet;
+import org.cadixdev.at.ModifierChange;
+import org.cadixdev.bombe.type.signature.FieldSignature;
+import org.cadixdev.bombe.type.signature.MethodSignature;
 import org.cadixdev.bombe.util.ByteStreams;
 import org.cadixdev.lorenz.MappingSet;
 import org.cadixdev.lorenz.io.MappingFormats;
 import org.cadixdev.lorenz.io.MappingsReader;
 import org.cadixdev.mercury.Mercury;
+import org.cadixdev.mercury.MercurySession;
+import org.cadixdev.mercury.Metrics;
+import org.cadixdev.mercury.RewriteContext;
+import org.cadixdev.mercury.RewriteTarget;
+import org.cadixdev.mercury.SourceRewriter;
+import org.cadixdev.mercury.at.AccessTransformerRewriter;
 import org.cadixdev.mercury.remapper.MercuryRemapper;
+import org.cadixdev.mercury.util.ZipOutputSink;
 import org.eclipse.jdt.core.JavaCore;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipInputStream;
+
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
 
 class RemappingTests {
 
@@ -58,14 +104,722 @@ class RemappingTests {
     //    combinations (GH-31).
     // 6. Import remapping tests (GH-28)
 
+    /**
+     * The default number of bytes the remapper may allocate per file, see
+     * {@link #checkAllocationBudget(String, Function)}. The test files are small,
+     * so the visitors should stay well below it. When the remapper changes, run
+     * the tests with a budget of 0 to print the current allocation, and keep the
+     * default a small margin above it.
+     */
+    static final long DEFAULT_ALLOCATION_BUDGET = 256 * 1024;
+
+    private static final Pattern JAVADOC = Pattern.compile("/\\*\\*.*?\\*/", Pattern.DOTALL);
+
+    /**
+     * The temporary directory of the current test, deleted after the test even
+     * if it fails.
+     */
+    @TempDir
+    Path tempDir;
+
     @Test
     void remap() throws Exception {
-        final Path tempDir = Files.createTempDirectory("mercury-test");
-        final Path in = tempDir.resolve("a");
-        final Path out = tempDir.resolve("b");
-        Files.createDirectories(in);
+        this.remap(mercury -> {});
+    }
+
+    @Test
+    void remapParallel() throws Exception {
+        // The output of a sharded run must be identical to the sequential one
+        this.remap(mercury -> {
+            mercury.setParallelism(4);
+            mercury.setBatchSize(2);
+        });
+    }
+
+    @Test
+    void remapPipelined() throws Exception {
+        this.remap(mercury -> mercury.setWriteQueueCapacity(2));
+    }
+
+    @Test
+    void remapMemoryThreshold() throws Exception {
+        // The parser may be recycled after any file, which must not change the output
+        this.remap(mercury -> mercury.setMemoryThreshold(1));
+    }
+
+    @Test
+    void remapIgnoredFlags() throws Exception {
+        // The remapper needs the whole source file, so the flags of the other processor are not used
+        this.remap(mercury -> mercury.getProcessors().add(new SourceRewriter() {
+            @Override
+            public int getFlags() {
+                return FLAG_IGNORE_METHOD_BODIES | FLAG_IGNORE_JAVADOC | FLAG_IGNORE_BINDINGS_RECOVERY;
+            }
+
+            @Override
+            public void rewrite(final RewriteContext context) {
+            }
+        }));
+    }
+
+    @Test
+    void remapWithoutJavadoc() throws Exception {
+        final Path in = this.tempDir.resolve("a");
+        final Path out = this.tempDir.resolve("b");
+        this.copyAll(in);
+        Files.createDirectories(out);
+
+        // Javadoc is not parsed, which must only change the Javadoc comments
+        final MappingSet mappings = this.loadMappings();
+        this.run(in, out, mercury -> {
+            mercury.getProcessors().clear();
+            mercury.getProcessors().add(MercuryRemapper.create(mappings, false));
+        });
+        this.verify(out, "Core.java");
+        this.verify(out, "NameQualifiedTest.java");
+        this.verify(out, "anon/Anon.java");
+        this.verify(out, "net/example/ImportTestNew.java");
+        this.verify(out, "net/example/newother/AnotherClass.java");
+        this.verify(out, "net/example/newother/OtherClass.java");
+        this.verify(out, "net/example/pkg/Util.java");
+        for (final String file : Arrays.asList("JavadocTest.java", "ParameterTest.java")) {
+            final String source = new String(Files.readAllBytes(in.resolve(file)), StandardCharsets.UTF_8);
+            final String actual = new String(Files.readAllBytes(out.resolve(file)), StandardCharsets.UTF_8);
+            assertEquals(this.removeJavadoc(this.read("/b/" + file)), this.removeJavadoc(actual), "Remapped code for " + file + " does not match expected");
+            assertEquals(this.getJavadoc(source), this.getJavadoc(actual), "Javadoc of " + file + " was remapped");
+        }
+    }
+
+    @Test
+    void remapIncremental() throws Exception {
+        final Path in = this.tempDir.resolve("a");
+        final Path out = this.tempDir.resolve("b");
+        this.copyAll(in);
+        Files.createDirectories(out);
+
+        final Consumer<Mercury> configurer = mercury -> mercury.setIncremental(true);
+        this.run(in, out, configurer);
+        this.verifyAll(out);
+
+        // Nothing changed, so the second run must not write any files
+        final Path core = out.resolve("Core.java");
+        Files.write(core, "// untouched".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        this.run(in, out, configurer);
+        assertTrue(new String(Files.readAllBytes(core), StandardCharsets.UTF_8).endsWith("// untouched"),
+                "Core.java was written again");
+
+        // Missing output files are written again
+        Files.delete(core);
+        this.run(in, out, configurer);
+        this.verifyAll(out);
+    }
+
+    @Test
+    void remapIncrementalMappingChange() throws Exception {
+        final Path in = this.tempDir.resolve("a");
+        final Path out = this.tempDir.resolve("b");
+        this.copyAll(in);
+        Files.createDirectories(out);
+
+        final Consumer<Mercury> configurer = mercury -> mercury.setIncremental(true);
+        this.run(in, out, configurer);
+
+        final FileTime before = FileTime.fromMillis(0);
+        final List<Path> outputs;
+        try (final Stream<Path> files = Files.walk(out)) {
+            outputs = files.filter(Files::isRegularFile)
+                    .filter(file -> !file.getFileName().toString().startsWith(".mercury"))
+                    .collect(Collectors.toList());
+        }
+        for (final Path output : outputs) {
+            Files.setLastModifiedTime(output, before);
+        }
+
+        // Only the files using the renamed method are written again
+        final MappingSet mappings = this.loadMappings();
+        mappings.getClassMapping("test/ObfClass")
+                .flatMap(mapping -> mapping.getMethodMapping("name", "()Ljava/lang/String;"))
+                .orElseThrow(IllegalStateException::new)
+                .setDeobfuscatedName("lastName");
+        this.run(in, out, mappings, configurer);
+
+        final Set<Path> written = new HashSet<>(Arrays.asList(out.resolve("Core.java"), out.resolve("JavadocTest.java")));
+        for (final Path output : outputs) {
+            assertEquals(written.contains(output), !Files.getLastModifiedTime(output).equals(before),
+                    output + " was " + (written.contains(output) ? "not " : "") + "written again");
+        }
+        assertTrue(new String(Files.readAllBytes(out.resolve("JavadocTest.java")), StandardCharsets.UTF_8).contains("lastName()"));
+    }
+
+    @Test
+    void remapCancelled() throws Exception {
+        final Path in = this.tempDir.resolve("a");
+        final Path out = this.tempDir.resolve("b");
+        this.copyAll(in);
+        Files.createDirectories(out);
+
+        assertThrows(CancellationException.class, () -> this.run(in, out, mercury -> {
+            mercury.setIncremental(true);
+            mercury.setProgressListener(progress -> {
+                if (progress.getParsedFiles() == 1) {
+                    mercury.cancel();
+                }
+            });
+        }));
+
+        // The next run continues where the cancelled one stopped
+        this.run(in, out, mercury -> mercury.setIncremental(true));
+        this.verifyAll(out);
+    }
+
+    @Test
+    void allocationBudgetSimpleRemapper() throws Exception {
+        this.checkAllocationBudget("simple", MercuryRemapper::createSimple);
+    }
+
+    @Test
+    void allocationBudgetRemapper() throws Exception {
+        this.checkAllocationBudget("remapper", MercuryRemapper::create);
+    }
+
+    @Test
+    void remapMetrics() throws Exception {
+        final List<Metrics> exported = new ArrayList<>();
+        this.remap(mercury -> mercury.getMetricsExporters().add(exported::add));
+
+        assertEquals(1, exported.size());
+        final Metrics metrics = exported.get(0);
+        assertTrue(metrics.getChangedFiles() > 0);
+        assertTrue(metrics.getAppliedEdits() >= metrics.getChangedFiles());
+        assertTrue(metrics.getPhaseTimes().containsKey(Metrics.PHASE_PARSE));
+        assertTrue(metrics.getProcessorTimes().containsKey(MercuryRemapper.class.getName()));
+        assertTrue(metrics.getCounters().getOrDefault(MercuryRemapper.COUNTER_CLASS_HIT, 0L) > 0);
+    }
+
+    @Test
+    void remapRenameMemo() throws Exception {
+        final Path in = this.tempDir.resolve("a");
+        final Path out = this.tempDir.resolve("b");
+        Files.createDirectories(in.resolve("memo"));
         Files.createDirectories(out);
 
+        final MappingSet mappings = MappingSet.create();
+        mappings.getOrCreateClassMapping("memo/Target").getOrCreateMethodMapping("a", "()Ljava/lang/Object;").setDeobfuscatedName("run");
+
+        Files.write(in.resolve("memo/Target.java"), "package memo;\n\npublic class Target {\n    public Object a() { return null; }\n}\n"
+                .getBytes(StandardCharsets.UTF_8));
+        for (final String name : Arrays.asList("First", "Second", "Third")) {
+            Files.write(in.resolve("memo/" + name + ".java"), ("package memo;\n\npublic class " + name + " {\n"
+                    + "    Object value = new Target().a();\n}\n").getBytes(StandardCharsets.UTF_8));
+        }
+
+        // The declaration and all references resolve to the same binding, which is only looked up once,
+        // but every reference is counted
+        final List<Metrics> exported = new ArrayList<>();
+        this.run(in, out, mappings, mercury -> mercury.getMetricsExporters().add(exported::add));
+
+        assertEquals(1, exported.size());
+        final Map<String, Long> counters = exported.get(0).getCounters();
+        assertEquals(4L, (long) counters.getOrDefault(MercuryRemapper.COUNTER_METHOD_HIT, 0L), "Method references were not counted: " + counters);
+        assertEquals(0L, (long) counters.getOrDefault(MercuryRemapper.COUNTER_METHOD_MISS, 0L), "Unexpected method lookup: " + counters);
+        // Target, Object and Target.a() are each referenced four times, and looked up once
+        assertEquals(9L, (long) counters.getOrDefault(MercuryRemapper.COUNTER_MEMO_HIT, 0L), "Lookups were not memoized: " + counters);
+        for (final String name : Arrays.asList("First", "Second", "Third")) {
+            assertTrue(new String(Files.readAllBytes(out.resolve("memo/" + name + ".java")), StandardCharsets.UTF_8)
+                    .contains("new Target().run();"), name + " was not remapped");
+        }
+    }
+
+    @Test
+    void remapKeepsMappings() throws Exception {
+        // Looking up a class in the compiled mappings must not create a mapping for it
+        final MappingSet mappings = this.loadMappings();
+        final int classes = mappings.getTopLevelClassMappings().size();
+        this.remap(mercury -> mercury.getProcessors().set(0, MercuryRemapper.create(mappings)));
+
+        assertEquals(classes, mappings.getTopLevelClassMappings().size());
+    }
+
+    @Test
+    void remapSession() throws Exception {
+        final Path in = this.tempDir.resolve("a");
+        final Path out = this.tempDir.resolve("b");
+        this.copyAll(in);
+        Files.createDirectories(out);
+
+        // The second run reuses the class information of the first one
+        final MercurySession session = new MercurySession();
+        this.run(in, out, mercury -> mercury.setSession(session));
+        this.delete(out);
+        Files.createDirectories(out);
+        this.run(in, out, mercury -> mercury.setSession(session));
+        this.verifyAll(out);
+    }
+
+    @Test
+    void remapSessionSourceChange() throws Exception {
+        final Path in = this.tempDir.resolve("a");
+        final Path out = this.tempDir.resolve("b");
+        Files.createDirectories(in.resolve("session"));
+        Files.createDirectories(out);
+
+        // Inherited members are resolved without adding them to the mappings, so both runs can share them
+        final MappingSet mappings = MappingSet.create();
+        mappings.getOrCreateClassMapping("session/Base").getOrCreateMethodMapping("a", "()V").setDeobfuscatedName("run");
+        mappings.getOrCreateClassMapping("session/Child");
+
+        final Path base = in.resolve("session/Base.java");
+        final Path child = in.resolve("session/Child.java");
+        Files.write(base, "package session;\n\npublic class Base {\n    public void a() {}\n}\n".getBytes(StandardCharsets.UTF_8));
+        Files.write(child, "package session;\n\npublic class Child extends Base {\n    public void a() {}\n}\n".getBytes(StandardCharsets.UTF_8));
+
+        final MercurySession session = new MercurySession();
+        this.run(in, out, mappings, mercury -> mercury.setSession(session));
+        assertTrue(new String(Files.readAllBytes(out.resolve("session/Child.java")), StandardCharsets.UTF_8).contains("void run()"));
+        assertTrue(mappings.getClassMapping("session/Child").orElseThrow(IllegalStateException::new).getMethodMappings().isEmpty(),
+                "Inherited mapping was added to the mappings");
+
+        // The class information of Base is outdated, so the inherited mapping must no longer apply
+        Files.write(base, "package session;\n\npublic class Base {\n}\n".getBytes(StandardCharsets.UTF_8));
+        this.run(in, out, mappings, mercury -> mercury.setSession(session));
+        assertTrue(new String(Files.readAllBytes(out.resolve("session/Child.java")), StandardCharsets.UTF_8).contains("void a()"),
+                "Outdated class information was used");
+    }
+
+    @Test
+    void remapInheritedFromNearestParent() throws Exception {
+        final Path in = this.tempDir.resolve("a");
+        final Path out = this.tempDir.resolve("b");
+        Files.createDirectories(in.resolve("inherit"));
+        Files.createDirectories(out);
+
+        // The parent and the grandparent map the method differently, the nearest one wins like in Lorenz
+        final MappingSet mappings = MappingSet.create();
+        mappings.getOrCreateClassMapping("inherit/GrandParent").getOrCreateMethodMapping("a", "()V").setDeobfuscatedName("grandParent");
+        mappings.getOrCreateClassMapping("inherit/Parent").getOrCreateMethodMapping("a", "()V").setDeobfuscatedName("parent");
+        mappings.getOrCreateClassMapping("inherit/Child");
+
+        Files.write(in.resolve("inherit/GrandParent.java"), "package inherit;\n\npublic class GrandParent {\n    public void a() {}\n}\n"
+                .getBytes(StandardCharsets.UTF_8));
+        Files.write(in.resolve("inherit/Parent.java"), "package inherit;\n\npublic class Parent extends GrandParent {\n    public void a() {}\n}\n"
+                .getBytes(StandardCharsets.UTF_8));
+        Files.write(in.resolve("inherit/Child.java"), "package inherit;\n\npublic class Child extends Parent {\n    public void a() {}\n}\n"
+                .getBytes(StandardCharsets.UTF_8));
+
+        this.run(in, out, mappings, mercury -> {});
+        assertTrue(new String(Files.readAllBytes(out.resolve("inherit/Child.java")), StandardCharsets.UTF_8).contains("void parent()"),
+                "Mapping of the nearest parent was not used");
+    }
+
+    @Test
+    void remapFieldOfOtherType() throws Exception {
+        final Path in = this.tempDir.resolve("a");
+        final Path out = this.tempDir.resolve("b");
+        Files.createDirectories(in.resolve("field"));
+        Files.createDirectories(out);
+
+        // Like Lorenz, a field mapping of another type is used if none matches the type of the field
+        final MappingSet mappings = MappingSet.create();
+        mappings.getOrCreateClassMapping("field/Holder").createFieldMapping(FieldSignature.of("a", "I"), "count");
+
+        Files.write(in.resolve("field/Holder.java"), "package field;\n\npublic class Holder {\n    String a;\n}\n"
+                .getBytes(StandardCharsets.UTF_8));
+
+        this.run(in, out, mappings, mercury -> {});
+        assertTrue(new String(Files.readAllBytes(out.resolve("field/Holder.java")), StandardCharsets.UTF_8).contains("String count;"),
+                "Field was not remapped by its name");
+    }
+
+    @Test
+    void remapClassPathIndex() throws Exception {
+        final Path in = this.tempDir.resolve("a");
+        final Path out = this.tempDir.resolve("b");
+        final Path index = this.tempDir.resolve("classpath-index");
+        this.writeClient(in);
+        Files.createDirectories(out);
+
+        // The copy only contains what the first archive provides already, so it is left out
+        final Path first = this.tempDir.resolve("first.jar");
+        final Path second = this.tempDir.resolve("second.jar");
+        this.compileJar(first, Collections.singletonMap("lib/A.java", "package lib;\n\npublic class A {\n    public String a() { return \"a\"; }\n}\n"));
+        this.compileJar(second, Collections.singletonMap("lib/B.java", "package lib;\n\npublic class B {\n    public String b() { return \"b\"; }\n}\n"));
+        final Path copy = Files.copy(first, this.tempDir.resolve("copy.jar"));
+
+        for (int i = 0; i < 2; i++) {
+            this.run(in, out, this.createLibraryMappings(), mercury -> {
+                mercury.setClassPathIndex(index);
+                mercury.getClassPath().add(first);
+                mercury.getClassPath().add(copy);
+                mercury.getClassPath().add(second);
+            });
+            assertTrue(new String(Files.readAllBytes(out.resolve("client/Client.java")), StandardCharsets.UTF_8)
+                    .contains("return new A().first() + new B().second();"), "Library members were not remapped");
+        }
+
+        assertTrue(Files.isRegularFile(index));
+    }
+
+    @Test
+    void remapClassPathStubs() throws Exception {
+        final Path in = this.tempDir.resolve("a");
+        final Path out = this.tempDir.resolve("b");
+        final Path stubs = this.tempDir.resolve("stubs");
+        this.writeClient(in);
+        Files.createDirectories(out);
+
+        // The bindings of the library are only resolved through its stub
+        final Path library = this.tempDir.resolve("library.jar");
+        final Map<String, String> sources = new HashMap<>();
+        sources.put("lib/A.java", "package lib;\n\npublic class A {\n    public String a() { return \"a\"; }\n}\n");
+        sources.put("lib/B.java", "package lib;\n\npublic class B extends A {\n    public String b() { return a(); }\n}\n");
+        this.compileJar(library, sources);
+
+        for (int i = 0; i < 2; i++) {
+            if (i == 1) {
+                // A changed archive gets a new stub, which replaces the outdated one
+                sources.put("lib/C.java", "package lib;\n\npublic class C {\n}\n");
+                this.compileJar(library, sources);
+                Files.setLastModifiedTime(library, FileTime.fromMillis(Files.getLastModifiedTime(library).toMillis() + 1000));
+            }
+
+            this.run(in, out, this.createLibraryMappings(), mercury -> {
+                mercury.setClassPathStubs(stubs);
+                mercury.getClassPath().add(library);
+            });
+            assertTrue(new String(Files.readAllBytes(out.resolve("client/Client.java")), StandardCharsets.UTF_8)
+                    .contains("return new A().first() + new B().second();"), "Library members were not remapped");
+
+            try (final Stream<Path> files = Files.list(stubs)) {
+                final List<Path> stubFiles = files.collect(Collectors.toList());
+                assertEquals(1, stubFiles.size(), "Expected a single stub: " + stubFiles);
+                assertTrue(stubFiles.get(0).toString().endsWith(".jar"));
+                try (final ZipFile zip = new ZipFile(stubFiles.get(0).toFile())) {
+                    assertEquals(i == 1, zip.getEntry("lib/C.class") != null, "Stub is outdated");
+                }
+            }
+        }
+    }
+
+    @Test
+    void remapMultipleTargets() throws Exception {
+        final Path in = this.tempDir.resolve("a");
+        final Path out = this.tempDir.resolve("b");
+        final Path otherOut = this.tempDir.resolve("c");
+        this.copyAll(in);
+
+        final Mercury mercury = new Mercury();
+        mercury.setSourceCompatibility(JavaCore.VERSION_11);
+        mercury.setFlexibleAnonymousClassMemberLookups(true);
+        mercury.rewrite(in, Arrays.asList(
+                new RewriteTarget(out, MercuryRemapper.create(this.loadMappings())),
+                new RewriteTarget(otherOut, MercuryRemapper.create(this.loadMappings()))
+        ));
+        this.verifyAll(out);
+        this.verifyAll(otherOut);
+    }
+
+    @Test
+    void remapInMemory() throws Exception {
+        final Mercury mercury = new Mercury();
+        mercury.setSourceCompatibility(JavaCore.VERSION_11);
+        mercury.getProcessors().add(MercuryRemapper.create(this.loadMappings()));
+
+        final Map<String, String> result = mercury.rewrite(
+                Collections.singletonMap("test/ObfClass.java", this.read("/a/test/ObfClass.java")));
+        assertEquals(Collections.singleton("Core.java"), result.keySet());
+        assertEquals(this.read("/b/Core.java"), result.get("Core.java"));
+    }
+
+    @Test
+    void remapInMemorySourcePath() throws Exception {
+        final Path in = this.tempDir.resolve("a");
+        this.copyAll(in);
+        Files.delete(in.resolve("JavadocTest.java"));
+
+        // The referenced types are resolved through the source path
+        final Mercury mercury = new Mercury();
+        mercury.setSourceCompatibility(JavaCore.VERSION_11);
+        mercury.getSourcePath().add(in);
+        mercury.getProcessors().add(MercuryRemapper.create(this.loadMappings()));
+
+        final Map<String, String> result = mercury.rewrite(
+                Collections.singletonMap("JavadocTest.java", this.read("/a/JavadocTest.java")));
+        assertEquals(Collections.singleton("JavadocTest.java"), result.keySet());
+        assertEquals(this.read("/b/JavadocTest.java"), result.get("JavadocTest.java"));
+    }
+
+    @Test
+    void remapSourcePathCache() throws Exception {
+        final Path in = this.tempDir.resolve("a");
+        final Path out = this.tempDir.resolve("b");
+        final Path lib = this.tempDir.resolve("lib");
+        final Path cache = this.tempDir.resolve("sourcepath-cache");
+        this.writeClient(in);
+        Files.createDirectories(out);
+
+        // Only the signatures are compiled, so the missing type in the method body does not matter
+        Files.createDirectories(lib.resolve("lib"));
+        Files.write(lib.resolve("lib/A.java"), ("package lib;\n\npublic class A {\n"
+                + "    public String a() { return Missing.value(); }\n}\n").getBytes(StandardCharsets.UTF_8));
+        final Path b = lib.resolve("lib/B.java");
+        Files.write(b, ("package lib;\n\npublic class B extends A {\n    private final String name;\n\n"
+                + "    public B() { this(\"b\"); }\n\n    B(String name) { super(); this.name = name; }\n\n"
+                + "    public String b() { return this.name; }\n}\n").getBytes(StandardCharsets.UTF_8));
+
+        final Consumer<Mercury> configurer = mercury -> {
+            mercury.setSourcePathCache(cache);
+            mercury.getSourcePath().add(lib);
+        };
+
+        // The second run resolves the source path from the classes compiled by the first one
+        Path classes = null;
+        for (int i = 0; i < 2; i++) {
+            this.run(in, out, this.createLibraryMappings(), configurer);
+            assertTrue(new String(Files.readAllBytes(out.resolve("client/Client.java")), StandardCharsets.UTF_8)
+                    .contains("return new A().first() + new B().second();"), "Source path members were not remapped");
+
+            final List<Path> entries = this.list(cache);
+            assertEquals(1, entries.size(), "Expected a single cache entry: " + entries);
+            if (i == 0) {
+                classes = entries.get(0).resolve("lib/B.class");
+                assertTrue(Files.isRegularFile(classes), "Source path was not compiled");
+                Files.setLastModifiedTime(classes, FileTime.fromMillis(0));
+            } else {
+                assertEquals(FileTime.fromMillis(0), Files.getLastModifiedTime(classes), "Source path was compiled again");
+            }
+        }
+
+        // A changed source file is compiled again, B no longer declares the method
+        Files.write(b, "package lib;\n\npublic class B extends A {\n}\n".getBytes(StandardCharsets.UTF_8));
+        this.run(in, out, this.createLibraryMappings(), configurer);
+        assertTrue(new String(Files.readAllBytes(out.resolve("client/Client.java")), StandardCharsets.UTF_8)
+                .contains("return new A().first() + new B().b();"), "Outdated source path classes were used");
+        final List<Path> entries = this.list(cache);
+        assertEquals(1, entries.size(), "Outdated cache entry was not removed: " + entries);
+        assertFalse(Files.exists(classes), "Changed source path was not compiled again");
+    }
+
+    @Test
+    void remapToZip() throws Exception {
+        final Path in = this.tempDir.resolve("a");
+        final Path zip = this.tempDir.resolve("b.zip");
+        this.copyAll(in);
+
+        final Mercury mercury = new Mercury();
+        mercury.setSourceCompatibility(JavaCore.VERSION_11);
+        mercury.getProcessors().add(MercuryRemapper.create(this.loadMappings()));
+        try (final ZipOutputSink sink = new ZipOutputSink(zip)) {
+            mercury.rewrite(in, sink);
+        }
+
+        try (final ZipFile zipFile = new ZipFile(zip.toFile())) {
+            final List<String> names = zipFile.stream().map(ZipEntry::getName).collect(Collectors.toList());
+            assertEquals(names.stream().sorted().collect(Collectors.toList()), names, "Entries are not sorted");
+
+            try (final InputStream entry = zipFile.getInputStream(zipFile.getEntry("Core.java"))) {
+                final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                ByteStreams.copy(entry, baos);
+                assertEquals(this.read("/b/Core.java"), baos.toString());
+            }
+        }
+    }
+
+    @Test
+    void zipOutputSinkReproducible() throws Exception {
+        final Path first = this.tempDir.resolve("first.zip");
+        final Path second = this.tempDir.resolve("second.zip");
+
+        try (final ZipOutputSink sink = new ZipOutputSink(first)) {
+            sink.write("b/B.java", "class B {}".getBytes(StandardCharsets.UTF_8));
+            sink.write("A.java", "class Old {}".getBytes(StandardCharsets.UTF_8));
+            sink.write("A.java", "class A {}".getBytes(StandardCharsets.UTF_8));
+        }
+        try (final ZipOutputSink sink = new ZipOutputSink(second)) {
+            sink.write("A.java", "class A {}".getBytes(StandardCharsets.UTF_8));
+            sink.write("b/B.java", "class B {}".getBytes(StandardCharsets.UTF_8));
+        }
+
+        // Replaced files and the order of the writes do not change the archive
+        assertTrue(Arrays.equals(Files.readAllBytes(first), Files.readAllBytes(second)), "Archives are not identical");
+        assertFalse(Files.exists(this.tempDir.resolve("first.zip.spill")), "Spill file was not deleted");
+    }
+
+    @Test
+    void zipOutputSinkEntries() throws Exception {
+        final Path zip = this.tempDir.resolve("entries.zip");
+
+        // Compressed, stored and empty entries must all be readable with and without the central directory
+        final byte[] compressible = new byte[64 * 1024];
+        Arrays.fill(compressible, (byte) 'a');
+        final byte[] random = new byte[1024];
+        new Random(0).nextBytes(random);
+        final Map<String, byte[]> entries = new HashMap<>();
+        entries.put("compressible.txt", compressible);
+        entries.put("random.bin", random);
+        entries.put("empty/", new byte[0]);
+
+        try (final ZipOutputSink sink = new ZipOutputSink(zip)) {
+            for (final Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                sink.write(entry.getKey(), entry.getValue());
+            }
+        }
+
+        try (final ZipFile zipFile = new ZipFile(zip.toFile())) {
+            assertEquals(entries.size(), zipFile.size());
+            assertTrue(zipFile.getEntry("compressible.txt").getCompressedSize() < compressible.length, "Entry was not compressed");
+            for (final Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                try (final InputStream in = zipFile.getInputStream(zipFile.getEntry(entry.getKey()))) {
+                    final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                    ByteStreams.copy(in, baos);
+                    assertTrue(Arrays.equals(entry.getValue(), baos.toByteArray()), "Content differs for " + entry.getKey());
+                }
+            }
+        }
+
+        try (final ZipInputStream in = new ZipInputStream(Files.newInputStream(zip))) {
+            int count = 0;
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                ByteStreams.copy(in, baos);
+                assertTrue(Arrays.equals(entries.get(entry.getName()), baos.toByteArray()), "Content differs for " + entry.getName());
+                count++;
+            }
+            assertEquals(entries.size(), count);
+        }
+    }
+
+    @Test
+    void remapExcluded() throws Exception {
+        final Path in = this.tempDir.resolve("a");
+        final Path out = this.tempDir.resolve("b");
+        this.copyAll(in);
+        Files.createDirectories(out);
+
+        this.run(in, out, mercury -> mercury.getExcludes().add("anon/**"));
+        this.verify(out, "Core.java");
+        assertFalse(Files.exists(out.resolve("anon/Anon.java")), "Excluded file was written");
+    }
+
+    @Test
+    void remapIncluded() throws Exception {
+        final Path in = this.tempDir.resolve("a");
+        final Path out = this.tempDir.resolve("b");
+        this.copyAll(in);
+        Files.createDirectories(out);
+
+        this.run(in, out, mercury -> {
+            mercury.setParallelism(2);
+            mercury.setBatchSize(1);
+            mercury.getIncludes().add("test/**");
+            mercury.getIncludes().add("eclipse/*.java");
+            mercury.getExcludes().add("eclipse/X.java");
+        });
+        this.verify(out, "Core.java");
+        this.verify(out, "test/test/Javadocs.java");
+        this.verify(out, "eclipse/Test.java");
+        assertFalse(Files.exists(out.resolve("eclipse/X.java")), "Excluded file was written");
+        assertFalse(Files.exists(out.resolve("JavadocTest.java")), "File that is not included was written");
+        assertFalse(Files.exists(out.resolve("anon/Anon.java")), "File that is not included was written");
+    }
+
+    @Test
+    void remapIncludedPackages() throws Exception {
+        final Path in = this.tempDir.resolve("a");
+        final Path out = this.tempDir.resolve("b");
+        this.copyAll(in);
+        Files.createDirectories(out);
+
+        // Package rules select the same files as the globs in remapIncluded
+        this.run(in, out, mercury -> {
+            mercury.getIncludes().add("test.**");
+            mercury.getIncludes().add("eclipse.*");
+            mercury.getExcludes().add("eclipse.X");
+        });
+        this.verify(out, "Core.java");
+        this.verify(out, "test/test/Javadocs.java");
+        this.verify(out, "eclipse/Test.java");
+        assertFalse(Files.exists(out.resolve("eclipse/X.java")), "Excluded file was written");
+        assertFalse(Files.exists(out.resolve("JavadocTest.java")), "File that is not included was written");
+        assertFalse(Files.exists(out.resolve("anon/Anon.java")), "File that is not included was written");
+    }
+
+    @Test
+    void copyUnaffected() throws Exception {
+        final Path in = this.tempDir.resolve("a");
+        final Path out = this.tempDir.resolve("b");
+        this.copyAll(in);
+        Files.createDirectories(out);
+
+        // None of the identifiers are mapped, so the file is copied without being parsed
+        final String source = "package unaffected;\n\npublic class Unaffected {\n    String value = \"a\";\n}\n";
+        Files.createDirectories(in.resolve("unaffected"));
+        Files.write(in.resolve("unaffected/Unaffected.java"), source.getBytes(StandardCharsets.UTF_8));
+
+        this.run(in, out, mercury -> {});
+        this.verifyAll(out);
+        assertEquals(source, new String(Files.readAllBytes(out.resolve("unaffected/Unaffected.java")), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void accessTransformParallel() throws Exception {
+        final Path in = this.tempDir.resolve("a");
+        final Path sequential = this.tempDir.resolve("sequential");
+        final Path parallel = this.tempDir.resolve("parallel");
+        Files.createDirectories(in.resolve("at"));
+        Files.createDirectories(sequential);
+        Files.createDirectories(parallel);
+
+        // The transform of Base.run() is inherited by the overrides in every subclass
+        String parent = "Base";
+        Files.write(in.resolve("at/Base.java"), "package at;\n\nclass Base {\n    protected void run() {\n    }\n}\n"
+                .getBytes(StandardCharsets.UTF_8));
+        for (int i = 0; i < 8; i++) {
+            final String name = "Child" + i;
+            Files.write(in.resolve("at/" + name + ".java"), ("package at;\n\nclass " + name + " extends " + parent
+                    + " {\n    @Override\n    protected void run() {\n    }\n}\n").getBytes(StandardCharsets.UTF_8));
+            parent = name;
+        }
+
+        final AccessTransformSet ats = AccessTransformSet.create();
+        ats.getOrCreateClass("at/Base").merge(AccessTransform.of(AccessChange.PUBLIC, ModifierChange.NONE));
+        ats.getOrCreateClass("at/Base").mergeMethod(MethodSignature.of("run", "()V"),
+                AccessTransform.of(AccessChange.PUBLIC, ModifierChange.NONE));
+
+        this.run(in, sequential, MappingSet.create(), mercury -> {
+            mercury.getProcessors().clear();
+            mercury.getProcessors().add(AccessTransformerRewriter.create(ats));
+        });
+        this.run(in, parallel, MappingSet.create(), mercury -> {
+            mercury.getProcessors().clear();
+            mercury.getProcessors().add(AccessTransformerRewriter.create(ats));
+            mercury.setParallelism(4);
+            mercury.setBatchSize(1);
+        });
+
+        assertTrue(new String(Files.readAllBytes(sequential.resolve("at/Child7.java")), StandardCharsets.UTF_8)
+                .contains("public void run()"), "Inherited transform was not applied");
+        assertFalse(ats.getClass("at/Child0").isPresent(), "Inherited transform was added to the access transformers");
+        for (final Path file : this.list(sequential.resolve("at"))) {
+            assertEquals(new String(Files.readAllBytes(file), StandardCharsets.UTF_8),
+                    new String(Files.readAllBytes(parallel.resolve("at").resolve(file.getFileName())), StandardCharsets.UTF_8),
+                    "Parallel output differs for " + file.getFileName());
+        }
+    }
+
+    void remap(final Consumer<Mercury> configurer) throws Exception {
+        final Path in = this.tempDir.resolve("a");
+        final Path out = this.tempDir.resolve("b");
+        this.copyAll(in);
+        Files.createDirectories(out);
+
+        this.run(in, out, configurer);
+        this.verifyAll(out);
+    }
+
+    void copyAll(final Path in) throws IOException {
+        Files.createDirectories(in);
+
         // Copy our test classes to the temporary directory
         // - Test 1
         this.copy(in, "test/test/Javadocs.java");
@@ -88,21 +842,90 @@ void remap() throws Exception {
         this.copy(in, "com/example/other/AnotherClass.java");
         this.copy(in, "com/example/other/OtherClass.java");
         this.copy(in, "com/example/pkg/Constants.java");
+    }
 
+    MappingSet loadMappings() throws IOException {
         // Load our test mappings
         final MappingSet mappings = MappingSet.create();
         try (final MappingsReader reader = MappingFormats.byId("jam")
                 .createReader(RemappingTests.class.getResourceAsStream("/test.jam"))) {
             reader.read(mappings);
         }
+        return mappings;
+    }
+
+    void run(final Path in, final Path out, final Consumer<Mercury> configurer) throws Exception {
+        this.run(in, out, this.loadMappings(), configurer);
+    }
 
+    void run(final Path in, final Path out, final MappingSet mappings, final Consumer<Mercury> configurer) throws Exception {
         // Run Mercury
         final Mercury mercury = new Mercury();
         mercury.setSourceCompatibility(JavaCore.VERSION_11);
         mercury.getProcessors().add(MercuryRemapper.create(mappings));
         mercury.setFlexibleAnonymousClassMemberLookups(true);
+        configurer.accept(mercury);
         mercury.rewrite(in, out);
+    }
+
+    /**
+     * Checks the bytes allocated by the remapper per file against the budget in the
+     * {@code mercury.allocationBudget.<name>} system property, or
+     * {@link #DEFAULT_ALLOCATION_BUDGET}. Only the visitor is measured, the
+     * parser and the output are not included.
+     */
+    void checkAllocationBudget(final String name, final Function<MappingSet, SourceRewriter> factory) throws Exception {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean,
+                "Thread allocation counters are not available");
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported(), "Thread allocation counters are not supported");
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        final long budget = Long.getLong("mercury.allocationBudget." + name, DEFAULT_ALLOCATION_BUDGET);
+        final SourceRewriter remapper = factory.apply(this.loadMappings());
+        final AtomicLong allocated = new AtomicLong();
+        final AtomicInteger files = new AtomicInteger();
+        final SourceRewriter measured = new SourceRewriter() {
+            @Override
+            public int getFlags() {
+                return remapper.getFlags();
+            }
+
+            @Override
+            public void initialize(final Mercury mercury) throws Exception {
+                remapper.initialize(mercury);
+            }
 
+            @Override
+            public void rewrite(final RewriteContext context) throws Exception {
+                final long thread = Thread.currentThread().getId();
+                final long before = threads.getThreadAllocatedBytes(thread);
+                remapper.rewrite(context);
+                allocated.addAndGet(threads.getThreadAllocatedBytes(thread) - before);
+                files.incrementAndGet();
+            }
+        };
+
+        final Path in = this.tempDir.resolve("a");
+        final Path out = this.tempDir.resolve("b");
+        this.copyAll(in);
+        Files.createDirectories(out);
+
+        // The first run loads and initializes the classes, only the second one is measured
+        for (int i = 0; i < 2; i++) {
+            allocated.set(0);
+            files.set(0);
+            this.run(in, out, mercury -> {
+                mercury.getProcessors().clear();
+                mercury.getProcessors().add(measured);
+            });
+        }
+
+        final long perFile = allocated.get() / files.get();
+        assertTrue(perFile <= budget, name + " allocated " + perFile + " bytes per file, the budget is " + budget + " bytes");
+    }
+
+    void verifyAll(final Path out) throws IOException {
         // Check that the output is as expected
         // - Test 1
         this.verify(out, "Core.java");
@@ -123,9 +946,74 @@ void remap() throws Exception {
         this.verify(out, "net/example/newother/AnotherClass.java");
         this.verify(out, "net/example/newother/OtherClass.java");
         this.verify(out, "net/example/pkg/Util.java");
+    }
+
+    void writeClient(final Path in) throws IOException {
+        Files.createDirectories(in.resolve("client"));
+        Files.write(in.resolve("client/Client.java"), ("package client;\n\nimport lib.A;\nimport lib.B;\n\n"
+                + "public class Client {\n    String run() {\n        return new A().a() + new B().b();\n    }\n}\n")
+                .getBytes(StandardCharsets.UTF_8));
+    }
+
+    MappingSet createLibraryMappings() {
+        final MappingSet mappings = MappingSet.create();
+        mappings.getOrCreateClassMapping("lib/A").getOrCreateMethodMapping("a", "()Ljava/lang/String;").setDeobfuscatedName("first");
+        mappings.getOrCreateClassMapping("lib/B").getOrCreateMethodMapping("b", "()Ljava/lang/String;").setDeobfuscatedName("second");
+        return mappings;
+    }
+
+    /**
+     * Compiles the given source files into an archive, for tests that need
+     * classes on the classpath.
+     */
+    void compileJar(final Path jar, final Map<String, String> sources) throws IOException {
+        final JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        assumeTrue(compiler != null, "No Java compiler available");
+
+        final Path dir = Files.createTempDirectory(this.tempDir, "library");
+        final List<File> files = new ArrayList<>();
+        for (final Map.Entry<String, String> source : sources.entrySet()) {
+            final Path file = dir.resolve(source.getKey());
+            Files.createDirectories(file.getParent());
+            Files.write(file, source.getValue().getBytes(StandardCharsets.UTF_8));
+            files.add(file.toFile());
+        }
+
+        try (final StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, StandardCharsets.UTF_8)) {
+            final List<String> options = Arrays.asList("-source", "8", "-target", "8", "-nowarn", "-d", dir.toString());
+            assertTrue(compiler.getTask(null, fileManager, null, options, null, fileManager.getJavaFileObjectsFromFiles(files)).call(),
+                    "Failed to compile library");
+        }
+
+        try (final ZipOutputSink sink = new ZipOutputSink(jar); final Stream<Path> classes = Files.walk(dir)) {
+            for (final Path file : (Iterable<Path>) classes.filter(path -> path.toString().endsWith(".class"))::iterator) {
+                sink.write(dir.relativize(file).toString().replace(File.separatorChar, '/'), Files.readAllBytes(file));
+            }
+        }
+    }
 
+    String removeJavadoc(final String source) {
+        return JAVADOC.matcher(source).replaceAll("/** */");
+    }
+
+    List<String> getJavadoc(final String source) {
+        final List<String> comments = new ArrayList<>();
+        final Matcher matcher = JAVADOC.matcher(source);
+        while (matcher.find()) {
+            comments.add(matcher.group());
+        }
+        return comments;
+    }
+
+    List<Path> list(final Path dir) throws IOException {
+        try (final Stream<Path> files = Files.list(dir)) {
+            return files.collect(Collectors.toList());
+        }
+    }
+
+    void delete(final Path dir) throws IOException {
         // Delete the directory
-        Files.walk(tempDir)
+        Files.walk(dir)
                 .sorted(Comparator.reverseOrder())
                 .map(Path::toFile)
                 .forEach(File::delete);
@@ -148,6 +1036,14 @@ void copy(final Path dir, final String file) throws IOException {
         assertTrue(Files.exists(path), file + " failed to copy!");
     }
 
+    String read(final String resource) throws IOException {
+        try (final InputStream in = RemappingTests.class.getResourceAsStream(resource)) {
+            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            ByteStreams.copy(in, baos);
+            return baos.toString();
+        }
+    }
+
     void verify(final Path dir, final String file) throws IOException {
         final Path path = dir.resolve(file);
 
@@ -155,12 +1051,7 @@ void verify(final Path dir, final String file) throws IOException {
         assertTrue(Files.exists(path), file + " doesn't exists!");
 
         // Check the file matches the expected output
-        final String expected;
-        try (final InputStream in = RemappingTests.class.getResourceAsStream("/b/" + file)) {
-            final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            ByteStreams.copy(in, baos);
-            expected = baos.toString();
-        }
+        final String expected = this.read("/b/" + file);
         final String actual = new String(Files.readAllBytes(path));
         assertEquals(expected, actual, "Remapped code for " + file + " does not match expected");
     }